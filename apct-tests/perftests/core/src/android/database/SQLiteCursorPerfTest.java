@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.database;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures scrolling through a 100k row {@link SQLiteCursor}, which needs several
+ * {@link CursorWindow} refills.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class SQLiteCursorPerfTest {
+    private static final int ROW_COUNT = 100000;
+    private static final String QUERY = "SELECT _id, name, value FROM items ORDER BY _id";
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mDatabase = SQLiteDatabase.create(null);
+        mDatabase.execSQL("CREATE TABLE items (_id INTEGER PRIMARY KEY, name TEXT, value INTEGER)");
+
+        final ContentValues values = new ContentValues();
+        mDatabase.beginTransaction();
+        try {
+            for (int i = 0; i < ROW_COUNT; i++) {
+                values.put("name", "item name number " + i);
+                values.put("value", i);
+                mDatabase.insert("items", null, values);
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.close();
+        mDatabase = null;
+    }
+
+    @Test
+    public void timeScrollForward() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            try (Cursor cursor = mDatabase.rawQuery(QUERY, null)) {
+                while (cursor.moveToNext()) {
+                    cursor.getLong(0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void timeScrollForwardOnly() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            try (Cursor cursor = mDatabase.rawQuery(QUERY, null)) {
+                ((SQLiteCursor) cursor).setFillWindowForwardOnly(true);
+                while (cursor.moveToNext()) {
+                    cursor.getLong(0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void timeScrollBackward() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            try (Cursor cursor = mDatabase.rawQuery(QUERY, null)) {
+                cursor.moveToLast();
+                while (cursor.moveToPrevious()) {
+                    cursor.getLong(0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void timeSkipForward() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            try (Cursor cursor = mDatabase.rawQuery(QUERY, null)) {
+                for (int i = 0; i < ROW_COUNT; i += 100) {
+                    cursor.moveToPosition(i);
+                    cursor.getString(1);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.net;
+
+import static android.net.NetworkStats.METERED_NO;
+import static android.net.NetworkStats.ROAMING_NO;
+import static android.net.NetworkStats.SET_DEFAULT;
+import static android.net.NetworkStats.SET_FOREGROUND;
+import static android.net.NetworkStats.TAG_NONE;
+
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.filters.LargeTest;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Measures the {@link NetworkStats} operations that run on every poll in
+ * {@code NetworkStatsService}: diffing two snapshots, and grouping rows.
+ */
+@RunWith(Parameterized.class)
+@LargeTest
+public class NetworkStatsPerfTest {
+    private static final String[] IFACES = { "wlan0", "rmnet_data0", "rmnet_data1" };
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    @Parameters(name = "rows={0}")
+    public static Collection<Object[]> data() {
+        return Arrays.asList(new Object[][] { {100}, {1000}, {5000} });
+    }
+
+    private final int mRows;
+
+    private NetworkStats mBefore;
+    private NetworkStats mAfter;
+    private NetworkStats mAfterShuffled;
+    private NetworkStats mDelta;
+
+    public NetworkStatsPerfTest(int rows) {
+        mRows = rows;
+    }
+
+    @Before
+    public void setUp() {
+        final Random random = new Random(0);
+        final ArrayList<NetworkStats.Entry> entries = new ArrayList<>(mRows);
+        for (int i = 0; i < mRows; i++) {
+            final NetworkStats.Entry entry = new NetworkStats.Entry();
+            entry.iface = IFACES[i % IFACES.length];
+            entry.uid = 10000 + (i / IFACES.length / 4);
+            entry.set = (i / IFACES.length) % 2 == 0 ? SET_DEFAULT : SET_FOREGROUND;
+            entry.tag = (i / IFACES.length / 2) % 2 == 0 ? TAG_NONE : 0xF00D;
+            entry.metered = METERED_NO;
+            entry.roaming = ROAMING_NO;
+            entry.rxBytes = random.nextInt(1 << 20);
+            entry.rxPackets = entry.rxBytes / 1024;
+            entry.txBytes = random.nextInt(1 << 20);
+            entry.txPackets = entry.txBytes / 1024;
+            entries.add(entry);
+        }
+
+        mBefore = new NetworkStats(0L, mRows);
+        for (NetworkStats.Entry entry : entries) {
+            mBefore.addValues(entry);
+        }
+
+        mAfter = new NetworkStats(1000L, mRows);
+        for (NetworkStats.Entry entry : entries) {
+            entry.rxBytes += 1024;
+            entry.txBytes += 512;
+            mAfter.addValues(entry);
+        }
+
+        Collections.shuffle(entries, random);
+        mAfterShuffled = new NetworkStats(1000L, mRows);
+        for (NetworkStats.Entry entry : entries) {
+            mAfterShuffled.addValues(entry);
+        }
+
+        mDelta = new NetworkStats(0L, mRows);
+    }
+
+    @Test
+    public void timeSubtract() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            NetworkStats.subtract(mAfter, mBefore, null, null);
+        }
+    }
+
+    @Test
+    public void timeSubtractRecycled() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            NetworkStats.subtract(mAfter, mBefore, null, null, mDelta);
+        }
+    }
+
+    @Test
+    public void timeSubtractShuffled() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            NetworkStats.subtract(mAfterShuffled, mBefore, null, null, mDelta);
+        }
+    }
+
+    @Test
+    public void timeGroupedByUid() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mAfter.groupedByUid();
+        }
+    }
+
+    @Test
+    public void timeGroupedByIface() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mAfter.groupedByIface();
+        }
+    }
+
+    @Test
+    public void timeCombineAllValues() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            final NetworkStats combined = new NetworkStats(0L, mRows);
+            combined.combineAllValues(mBefore);
+            combined.combineAllValues(mAfterShuffled);
+        }
+    }
+}
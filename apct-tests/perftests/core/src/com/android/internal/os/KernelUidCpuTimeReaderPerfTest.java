@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.os;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.os.Debug;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Measures {@link KernelUidCpuTimeReader} and {@link KernelUidCpuFreqTimeReader} against
+ * fixture files sized like a device with a few hundred uids, reporting both latency and the
+ * number of objects allocated per read.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class KernelUidCpuTimeReaderPerfTest {
+    private static final int UID_COUNT = 500;
+    private static final int FREQ_COUNT = 30;
+    private static final int ALLOC_ITERATIONS = 100;
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private File mCpuTimeFile;
+    private File mCpuFreqTimeFile;
+
+    private final KernelUidCpuTimeReader.Callback mCpuTimeCallback =
+            (uid, userTimeUs, systemTimeUs) -> {};
+    private final KernelUidCpuFreqTimeReader.Callback mCpuFreqTimeCallback =
+            new KernelUidCpuFreqTimeReader.Callback() {
+                @Override
+                public void onCpuFreqs(long[] cpuFreqs) {
+                }
+
+                @Override
+                public void onUidCpuFreqTime(int uid, long[] cpuFreqTimeMs) {
+                }
+            };
+
+    @Before
+    public void setUp() throws IOException {
+        final File dir = InstrumentationRegistry.getContext().getCacheDir();
+
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < UID_COUNT; i++) {
+            sb.append(10000 + i).append(": ").append(i * 1000L).append(' ')
+                    .append(i * 500L).append(" 0\n");
+        }
+        mCpuTimeFile = writeFile(dir, "show_uid_stat", sb);
+
+        sb.setLength(0);
+        sb.append("uid:");
+        for (int j = 0; j < FREQ_COUNT; j++) {
+            sb.append(' ').append(300000 + j * 50000);
+        }
+        sb.append('\n');
+        for (int i = 0; i < UID_COUNT; i++) {
+            sb.append(10000 + i).append(':');
+            for (int j = 0; j < FREQ_COUNT; j++) {
+                sb.append(' ').append(i * j);
+            }
+            sb.append('\n');
+        }
+        mCpuFreqTimeFile = writeFile(dir, "uid_time_in_state", sb);
+    }
+
+    @After
+    public void tearDown() {
+        mCpuTimeFile.delete();
+        mCpuFreqTimeFile.delete();
+    }
+
+    @Test
+    public void timeReadCpuTimeDelta() {
+        final KernelUidCpuTimeReader reader =
+                new KernelUidCpuTimeReader(mCpuTimeFile.getAbsolutePath());
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            reader.readDelta(mCpuTimeCallback);
+        }
+    }
+
+    @Test
+    public void timeReadCpuFreqTimeDelta() {
+        final KernelUidCpuFreqTimeReader reader =
+                new KernelUidCpuFreqTimeReader(mCpuFreqTimeFile.getAbsolutePath());
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            reader.readDelta(mCpuFreqTimeCallback);
+        }
+    }
+
+    @Test
+    public void allocsReadCpuTimeDelta() {
+        final KernelUidCpuTimeReader reader =
+                new KernelUidCpuTimeReader(mCpuTimeFile.getAbsolutePath());
+        // Warm up so the per-uid state is already populated.
+        reader.readDelta(mCpuTimeCallback);
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int i = 0; i < ALLOC_ITERATIONS; i++) {
+            reader.readDelta(mCpuTimeCallback);
+        }
+        Debug.stopAllocCounting();
+        reportAllocs("allocsReadCpuTimeDelta", Debug.getThreadAllocCount());
+    }
+
+    @Test
+    public void allocsReadCpuFreqTimeDelta() {
+        final KernelUidCpuFreqTimeReader reader =
+                new KernelUidCpuFreqTimeReader(mCpuFreqTimeFile.getAbsolutePath());
+        reader.readDelta(mCpuFreqTimeCallback);
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int i = 0; i < ALLOC_ITERATIONS; i++) {
+            reader.readDelta(mCpuFreqTimeCallback);
+        }
+        Debug.stopAllocCounting();
+        reportAllocs("allocsReadCpuFreqTimeDelta", Debug.getThreadAllocCount());
+    }
+
+    private static void reportAllocs(String key, int allocCount) {
+        final Bundle status = new Bundle();
+        status.putLong(key + "_allocs_per_call", allocCount / ALLOC_ITERATIONS);
+        InstrumentationRegistry.getInstrumentation().sendStatus(Activity.RESULT_OK, status);
+    }
+
+    private static File writeFile(File dir, String prefix, CharSequence contents)
+            throws IOException {
+        final File file = File.createTempFile(prefix, null, dir);
+        try (FileWriter writer = new FileWriter(file)) {
+            writer.append(contents);
+        }
+        return file;
+    }
+}
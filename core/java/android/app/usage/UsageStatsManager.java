@@ -16,6 +16,7 @@
 
 package android.app.usage;
 
+import android.annotation.Nullable;
 import android.annotation.RequiresPermission;
 import android.annotation.SystemApi;
 import android.annotation.SystemService;
@@ -193,6 +194,35 @@ public final class UsageStatsManager {
         return sEmptyResults;
     }
 
+    /**
+     * Query for at most <code>maxEvents</code> events in the given time range, oldest first.
+     * Events can also be restricted to a single package and to a set of event types, so that
+     * only matching events are copied out of the system. To read the next page, call again
+     * with <code>beginTime</code> set to one past the timestamp of the last event returned.
+     *
+     * @param beginTime The inclusive beginning of the range of events to include in the results.
+     * @param endTime The exclusive end of the range of events to include in the results.
+     * @param maxEvents The maximum number of events to return.
+     * @param packageName If not null, only return events for this package.
+     * @param eventTypes If not null, only return events with one of these types, such as
+     *                   {@link UsageEvents.Event#MOVE_TO_FOREGROUND}.
+     * @return A {@link UsageEvents}.
+     * @hide
+     */
+    public UsageEvents queryEventsPage(long beginTime, long endTime, int maxEvents,
+            @Nullable String packageName, @Nullable int[] eventTypes) {
+        try {
+            UsageEvents iter = mService.queryEventsPage(beginTime, endTime, maxEvents,
+                    packageName, eventTypes, mContext.getOpPackageName());
+            if (iter != null) {
+                return iter;
+            }
+        } catch (RemoteException e) {
+            // fallthrough and return null
+        }
+        return sEmptyResults;
+    }
+
     /**
      * A convenience method that queries for all stats in the given range (using the best interval
      * for that range), merges the resulting data, and keys it by package name.
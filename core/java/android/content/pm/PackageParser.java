@@ -92,16 +92,19 @@ import com.android.internal.util.ArrayUtils;
 import com.android.internal.util.XmlUtils;
 
 import libcore.io.IoUtils;
+import libcore.io.Streams;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
 import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.security.KeyFactory;
 import java.security.NoSuchAlgorithmException;
@@ -311,6 +314,13 @@ public class PackageParser {
     private Callback mCallback;
     private File mCacheDir;
 
+    /** Magic number at the start of each cache entry ("PKGC") */
+    private static final int CACHE_MAGIC = 0x504b4743;
+    /** Version of the cache entry header, bump when the header layout changes */
+    private static final int CACHE_VERSION = 1;
+    /** magic, version, package size, package mtime, payload length */
+    private static final int CACHE_HEADER_SIZE = 4 + 4 + 8 + 8 + 4;
+
     private static final int SDK_VERSION = Build.VERSION.SDK_INT;
     private static final String[] SDK_CODENAMES = Build.VERSION.ACTIVE_CODENAMES;
 
@@ -951,8 +961,8 @@ public class PackageParser {
      *
      * If {@code useCaches} is true, the package parser might return a cached
      * result from a previous parse of the same {@code packageFile} with the same
-     * {@code flags}. Note that this method does not check whether {@code packageFile}
-     * has changed since the last parse, it's up to callers to do so.
+     * {@code flags}. Cached results are only reused if the size and mtime of
+     * {@code packageFile} match those recorded when the entry was written.
      *
      * @see #parsePackageLite(File, int)
      */
@@ -988,6 +998,10 @@ public class PackageParser {
         StringBuilder sb = new StringBuilder(packageFile.getName());
         sb.append('-');
         sb.append(flags);
+        // Packages with the same file name may live on different partitions, so the
+        // parent directory is part of the key as well.
+        sb.append('-');
+        sb.append(Integer.toHexString(packageFile.getAbsoluteFile().getParent().hashCode()));
 
         return sb.toString();
     }
@@ -1045,6 +1059,48 @@ public class PackageParser {
         }
     }
 
+    /**
+     * Returns the size recorded in cache entries for {@code packageFile}. Cluster packages
+     * are directories, whose size says nothing about their contents, so only their mtime
+     * is checked.
+     */
+    private static long getCacheSize(StructStat stat) {
+        return OsConstants.S_ISDIR(stat.st_mode) ? 0 : stat.st_size;
+    }
+
+    /**
+     * Reads {@code cacheFile} and returns its payload, or {@code null} if the header does not
+     * match the current size and mtime of {@code packageFile}. Entries written by a different
+     * build never need to be rejected here, the whole cache directory is cleared when the
+     * build fingerprint changes.
+     */
+    private byte[] readCacheFile(File packageFile, File cacheFile)
+            throws IOException, ErrnoException {
+        try (FileInputStream fis = new FileInputStream(cacheFile)) {
+            final long fileSize = fis.getChannel().size();
+            if (fileSize < CACHE_HEADER_SIZE) {
+                return null;
+            }
+            final byte[] headerBytes = new byte[CACHE_HEADER_SIZE];
+            Streams.readFully(fis, headerBytes);
+            final ByteBuffer header = ByteBuffer.wrap(headerBytes);
+            if (header.getInt() != CACHE_MAGIC || header.getInt() != CACHE_VERSION) {
+                return null;
+            }
+            final StructStat stat = android.system.Os.stat(packageFile.getAbsolutePath());
+            if (header.getLong() != getCacheSize(stat) || header.getLong() != stat.st_mtime) {
+                return null;
+            }
+            final int length = header.getInt();
+            if (length != fileSize - CACHE_HEADER_SIZE) {
+                return null;
+            }
+            final byte[] bytes = new byte[length];
+            Streams.readFully(fis, bytes);
+            return bytes;
+        }
+    }
+
     /**
      * Returns the cached parse result for {@code packageFile} for parse flags {@code flags},
      * or {@code null} if no cached result exists.
@@ -1063,7 +1119,11 @@ public class PackageParser {
         }
 
         try {
-            final byte[] bytes = IoUtils.readFileAsByteArray(cacheFile.getAbsolutePath());
+            final byte[] bytes = readCacheFile(packageFile, cacheFile);
+            if (bytes == null) {
+                cacheFile.delete();
+                return null;
+            }
             Package p = fromCacheEntry(bytes);
             if (mCallback != null) {
                 String[] overlayApks = mCallback.getOverlayApks(p.packageName);
@@ -1116,7 +1176,23 @@ public class PackageParser {
             return;
         }
 
+        final StructStat stat;
+        try {
+            stat = android.system.Os.stat(packageFile.getAbsolutePath());
+        } catch (ErrnoException ee) {
+            Slog.w(TAG, "Unable to stat package for cache: " + packageFile, ee);
+            return;
+        }
+
+        final ByteBuffer header = ByteBuffer.allocate(CACHE_HEADER_SIZE);
+        header.putInt(CACHE_MAGIC);
+        header.putInt(CACHE_VERSION);
+        header.putLong(getCacheSize(stat));
+        header.putLong(stat.st_mtime);
+        header.putInt(cacheEntry.length);
+
         try (FileOutputStream fos = new FileOutputStream(cacheFile)) {
+            fos.write(header.array());
             fos.write(cacheEntry);
         } catch (IOException ioe) {
             Slog.w(TAG, "Error writing cache entry.", ioe);
@@ -76,6 +76,10 @@ public final class SQLiteConnectionPool implements Closeable {
     // and logging a message about the connection pool being busy.
     private static final long CONNECTION_POOL_BUSY_MILLIS = 30 * 1000; // 30 seconds
 
+    // Upper bounds in milliseconds of the buckets in mConnectionWaitHistogram.
+    // The last bucket counts every longer wait.
+    private static final long[] CONNECTION_WAIT_BUCKET_MILLIS = { 1, 10, 100, 1000 };
+
     private final CloseGuard mCloseGuard = CloseGuard.get();
 
     private final Object mLock = new Object();
@@ -88,6 +92,12 @@ public final class SQLiteConnectionPool implements Closeable {
     private ConnectionWaiter mConnectionWaiterPool;
     private ConnectionWaiter mConnectionWaiterQueue;
 
+    // Statistics about callers that had to wait for a connection.
+    private final int[] mConnectionWaitHistogram =
+            new int[CONNECTION_WAIT_BUCKET_MILLIS.length + 1];
+    private long mTotalConnectionWaitMillis;
+    private long mMaxConnectionWaitMillis;
+
     // Strong references to all available connections.
     private final ArrayList<SQLiteConnection> mAvailableNonPrimaryConnections =
             new ArrayList<SQLiteConnection>();
@@ -679,6 +689,7 @@ public final class SQLiteConnectionPool implements Closeable {
                     final SQLiteConnection connection = waiter.mAssignedConnection;
                     final RuntimeException ex = waiter.mException;
                     if (connection != null || ex != null) {
+                        noteConnectionWaitLocked(SystemClock.uptimeMillis() - waiter.mStartTime);
                         recycleConnectionWaiterLocked(waiter);
                         if (connection != null) {
                             return connection;
@@ -688,7 +699,7 @@ public final class SQLiteConnectionPool implements Closeable {
 
                     final long now = SystemClock.uptimeMillis();
                     if (now < nextBusyTimeoutTime) {
-                        busyTimeoutMillis = now - nextBusyTimeoutTime;
+                        busyTimeoutMillis = nextBusyTimeoutTime - now;
                     } else {
                         logConnectionPoolBusyLocked(now - waiter.mStartTime, connectionFlags);
                         busyTimeoutMillis = CONNECTION_POOL_BUSY_MILLIS;
@@ -704,6 +715,18 @@ public final class SQLiteConnectionPool implements Closeable {
         }
     }
 
+    // Can't throw.
+    private void noteConnectionWaitLocked(long waitMillis) {
+        int bucket = 0;
+        while (bucket < CONNECTION_WAIT_BUCKET_MILLIS.length
+                && waitMillis >= CONNECTION_WAIT_BUCKET_MILLIS[bucket]) {
+            bucket++;
+        }
+        mConnectionWaitHistogram[bucket] += 1;
+        mTotalConnectionWaitMillis += waitMillis;
+        mMaxConnectionWaitMillis = Math.max(mMaxConnectionWaitMillis, waitMillis);
+    }
+
     // Can't throw.
     private void cancelConnectionWaiterLocked(ConnectionWaiter waiter) {
         if (waiter.mAssignedConnection != null || waiter.mException != null) {
@@ -1005,6 +1028,22 @@ public final class SQLiteConnectionPool implements Closeable {
             printer.println("  Open: " + mIsOpen);
             printer.println("  Max connections: " + mMaxConnectionPoolSize);
 
+            int waitCount = 0;
+            final StringBuilder histogram = new StringBuilder();
+            for (int i = 0; i < mConnectionWaitHistogram.length; i++) {
+                waitCount += mConnectionWaitHistogram[i];
+                if (i < CONNECTION_WAIT_BUCKET_MILLIS.length) {
+                    histogram.append(" <").append(CONNECTION_WAIT_BUCKET_MILLIS[i]);
+                } else {
+                    histogram.append(" >=").append(CONNECTION_WAIT_BUCKET_MILLIS[i - 1]);
+                }
+                histogram.append("ms=").append(mConnectionWaitHistogram[i]);
+            }
+            printer.println("  Connection waits: count=" + waitCount
+                    + ", total=" + mTotalConnectionWaitMillis
+                    + " ms, max=" + mMaxConnectionWaitMillis + " ms");
+            printer.println("  Connection wait histogram:" + histogram);
+
             printer.println("  Available primary connection:");
             if (mAvailablePrimaryConnection != null) {
                 mAvailablePrimaryConnection.dump(indentedPrinter, verbose);
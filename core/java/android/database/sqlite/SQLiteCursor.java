@@ -54,6 +54,9 @@ public class SQLiteCursor extends AbstractWindowedCursor {
     /** The number of rows that can fit in the cursor window, 0 if unknown */
     private int mCursorWindowCapacity;
 
+    /** Whether every window fill starts at the requested row */
+    private boolean mFillWindowForwardOnly;
+
     /** A mapping of column names to column indices, to speed up lookups */
     private Map<String, Integer> mColumnNameMap;
 
@@ -120,7 +123,12 @@ public class SQLiteCursor extends AbstractWindowedCursor {
         // Make sure the row at newPosition is present in the window
         if (mWindow == null || newPosition < mWindow.getStartPosition() ||
                 newPosition >= (mWindow.getStartPosition() + mWindow.getNumRows())) {
-            fillWindow(newPosition);
+            // When stepping just past the end of the window the client is scanning forward,
+            // so don't spend part of the next window on rows it has already seen.
+            final boolean sequential = mWindow != null
+                    && newPosition == mWindow.getStartPosition() + mWindow.getNumRows()
+                    && oldPosition == newPosition - 1;
+            fillWindow(newPosition, sequential);
         }
 
         return true;
@@ -129,12 +137,12 @@ public class SQLiteCursor extends AbstractWindowedCursor {
     @Override
     public int getCount() {
         if (mCount == NO_COUNT) {
-            fillWindow(0);
+            fillWindow(0, false);
         }
         return mCount;
     }
 
-    private void fillWindow(int requiredPos) {
+    private void fillWindow(int requiredPos, boolean sequential) {
         clearOrCreateWindow(getDatabase().getPath());
 
         try {
@@ -146,8 +154,9 @@ public class SQLiteCursor extends AbstractWindowedCursor {
                     Log.d(TAG, "received count(*) from native_fill_window: " + mCount);
                 }
             } else {
-                int startPos = DatabaseUtils.cursorPickFillWindowStartPosition(requiredPos,
-                        mCursorWindowCapacity);
+                int startPos = mFillWindowForwardOnly || sequential ? requiredPos
+                        : DatabaseUtils.cursorPickFillWindowStartPosition(requiredPos,
+                                mCursorWindowCapacity);
                 mQuery.fillWindow(mWindow, startPos, requiredPos, false);
             }
         } catch (RuntimeException ex) {
@@ -251,6 +260,19 @@ public class SQLiteCursor extends AbstractWindowedCursor {
         mDriver.setBindArguments(selectionArgs);
     }
 
+    /**
+     * Controls which rows are loaded when the window is refilled. By default a third of
+     * the window holds rows before the requested position, so that moving backwards a little
+     * doesn't requery. Sequential forward moves always fill from the requested row.
+     *
+     * @param fillWindowForwardOnly if true, every fill starts at the requested row and uses the
+     * whole window for it and the rows after it. Rows already in the window are not affected.
+     * @hide
+     */
+    public void setFillWindowForwardOnly(boolean fillWindowForwardOnly) {
+        mFillWindowForwardOnly = fillWindowForwardOnly;
+    }
+
     /**
      * Release the native resources, if they haven't been released yet.
      */
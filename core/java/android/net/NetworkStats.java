@@ -103,6 +103,13 @@ public class NetworkStats implements Parcelable {
     private long[] txPackets;
     private long[] operations;
 
+    /**
+     * Open-addressed index from row key to the first matching row, stored as
+     * {@code row + 1} so that zero marks an empty slot. Built on first lookup
+     * and kept current by {@link #addValues(Entry)}.
+     */
+    private int[] rowIndex;
+
     public static class Entry {
         public String iface;
         public int uid;
@@ -341,6 +348,15 @@ public class NetworkStats implements Parcelable {
         txBytes[size] = entry.txBytes;
         txPackets[size] = entry.txPackets;
         operations[size] = entry.operations;
+
+        if (rowIndex != null) {
+            if ((size + 1) * 2 > rowIndex.length) {
+                // rebuilt larger on next lookup
+                rowIndex = null;
+            } else {
+                insertRowIndex(rowIndex, size);
+            }
+        }
         size++;
 
         return this;
@@ -440,14 +456,23 @@ public class NetworkStats implements Parcelable {
      * Find first stats index that matches the requested parameters.
      */
     public int findIndex(String iface, int uid, int set, int tag, int metered, int roaming) {
-        for (int i = 0; i < size; i++) {
-            if (uid == this.uid[i] && set == this.set[i] && tag == this.tag[i]
-                    && metered == this.metered[i] && roaming == this.roaming[i]
-                    && Objects.equals(iface, this.iface[i])) {
+        int[] index = rowIndex;
+        if (index == null) {
+            index = buildRowIndex();
+        }
+
+        final int mask = index.length - 1;
+        int slot = rowHash(iface, uid, set, tag, metered, roaming) & mask;
+        while (true) {
+            final int i = index[slot] - 1;
+            if (i < 0) {
+                return -1;
+            }
+            if (rowMatches(i, iface, uid, set, tag, metered, roaming)) {
                 return i;
             }
+            slot = (slot + 1) & mask;
         }
-        return -1;
     }
 
     /**
@@ -468,15 +493,71 @@ public class NetworkStats implements Parcelable {
                 i = (size + hintIndex - halfOffset - 1) % size;
             }
 
-            if (uid == this.uid[i] && set == this.set[i] && tag == this.tag[i]
-                    && metered == this.metered[i] && roaming == this.roaming[i]
-                    && Objects.equals(iface, this.iface[i])) {
+            if (rowMatches(i, iface, uid, set, tag, metered, roaming)) {
                 return i;
             }
         }
         return -1;
     }
 
+    /**
+     * Find stats index that matches the requested parameters, checking the
+     * hinted index first before falling back to {@link #findIndex}. Snapshots
+     * taken from the same source usually keep their rows in the same order.
+     */
+    private int findIndexWithHint(String iface, int uid, int set, int tag, int metered,
+            int roaming, int hintIndex) {
+        if (hintIndex < size && rowMatches(hintIndex, iface, uid, set, tag, metered, roaming)) {
+            return hintIndex;
+        }
+        return findIndex(iface, uid, set, tag, metered, roaming);
+    }
+
+    private boolean rowMatches(int i, String iface, int uid, int set, int tag, int metered,
+            int roaming) {
+        return uid == this.uid[i] && set == this.set[i] && tag == this.tag[i]
+                && metered == this.metered[i] && roaming == this.roaming[i]
+                && Objects.equals(iface, this.iface[i]);
+    }
+
+    private static int rowHash(String iface, int uid, int set, int tag, int metered,
+            int roaming) {
+        int hash = Objects.hashCode(iface);
+        hash = 31 * hash + uid;
+        hash = 31 * hash + set;
+        hash = 31 * hash + tag;
+        hash = 31 * hash + metered;
+        hash = 31 * hash + roaming;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Build {@link #rowIndex} covering all current rows, sized to stay at most
+     * half full.
+     */
+    private int[] buildRowIndex() {
+        final int[] index = new int[Integer.highestOneBit(Math.max(size, 4) * 4 - 1)];
+        for (int i = 0; i < size; i++) {
+            insertRowIndex(index, i);
+        }
+        rowIndex = index;
+        return index;
+    }
+
+    private void insertRowIndex(int[] index, int i) {
+        final int mask = index.length - 1;
+        int slot = rowHash(iface[i], uid[i], set[i], tag[i], metered[i], roaming[i]) & mask;
+        while (index[slot] != 0) {
+            // keep the first row when keys are duplicated
+            if (rowMatches(index[slot] - 1, iface[i], uid[i], set[i], tag[i], metered[i],
+                    roaming[i])) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = i + 1;
+    }
+
     /**
      * Splice in {@link #operations} from the given {@link NetworkStats} based
      * on matching {@link #uid} and {@link #tag} rows. Ignores {@link #iface},
@@ -661,6 +742,7 @@ public class NetworkStats implements Parcelable {
         if (recycle != null && recycle.capacity >= left.size) {
             result = recycle;
             result.size = 0;
+            result.rowIndex = null;
             result.elapsedRealtime = deltaRealtime;
         } else {
             result = new NetworkStats(deltaRealtime, left.size);
@@ -674,7 +756,7 @@ public class NetworkStats implements Parcelable {
             entry.roaming = left.roaming[i];
 
             // find remote row that matches, and subtract
-            final int j = right.findIndexHinted(entry.iface, entry.uid, entry.set, entry.tag,
+            final int j = right.findIndexWithHint(entry.iface, entry.uid, entry.set, entry.tag,
                     entry.metered, entry.roaming, i);
             if (j == -1) {
                 // newly appearing row, return entire value
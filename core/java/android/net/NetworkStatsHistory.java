@@ -364,12 +364,22 @@ public class NetworkStatsHistory implements Parcelable {
     public void recordHistory(NetworkStatsHistory input, long start, long end) {
         final NetworkStats.Entry entry = new NetworkStats.Entry(
                 IFACE_ALL, UID_ALL, SET_DEFAULT, TAG_NONE, 0L, 0L, 0L, 0L, 0L);
-        for (int i = 0; i < input.bucketCount; i++) {
+
+        // input buckets are sorted, so only walk those inside requested range
+        int i = Arrays.binarySearch(input.bucketStart, 0, input.bucketCount, start);
+        if (i < 0) i = ~i;
+
+        // when bucket boundaries line up, add directly into matching bucket
+        // instead of redistributing through recordData()
+        final boolean aligned = input.bucketDuration == bucketDuration;
+        int index = 0;
+
+        for (; i < input.bucketCount; i++) {
             final long bucketStart = input.bucketStart[i];
             final long bucketEnd = bucketStart + input.bucketDuration;
 
-            // skip when bucket is outside requested range
-            if (bucketStart < start || bucketEnd > end) continue;
+            // bucket ends after requested range; later buckets will too
+            if (bucketEnd > end) break;
 
             entry.rxBytes = getLong(input.rxBytes, i, 0L);
             entry.rxPackets = getLong(input.rxPackets, i, 0L);
@@ -377,7 +387,30 @@ public class NetworkStatsHistory implements Parcelable {
             entry.txPackets = getLong(input.txPackets, i, 0L);
             entry.operations = getLong(input.operations, i, 0L);
 
-            recordData(bucketStart, bucketEnd, entry);
+            if (aligned && bucketStart % bucketDuration == 0) {
+                if (entry.isNegative()) {
+                    throw new IllegalArgumentException("tried recording negative data");
+                }
+                if (entry.isEmpty()) continue;
+
+                // matching buckets only move forward, so resume search from last hit
+                index = Arrays.binarySearch(this.bucketStart, index, bucketCount, bucketStart);
+                if (index < 0) {
+                    index = ~index;
+                    insertBucket(index, bucketStart);
+                }
+
+                addLong(activeTime, index, bucketDuration);
+                addLong(rxBytes, index, entry.rxBytes);
+                addLong(rxPackets, index, entry.rxPackets);
+                addLong(txBytes, index, entry.txBytes);
+                addLong(txPackets, index, entry.txPackets);
+                addLong(operations, index, entry.operations);
+                totalBytes += entry.rxBytes + entry.txBytes;
+            } else {
+                recordData(bucketStart, bucketEnd, entry);
+                index = 0;
+            }
         }
     }
 
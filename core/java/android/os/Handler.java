@@ -653,6 +653,60 @@ public class Handler {
         return enqueueMessage(queue, msg, 0);
     }
 
+    /**
+     * Enqueue several messages into the message queue after all pending messages
+     * before the absolute time (in milliseconds) <var>uptimeMillis</var>, taking the
+     * queue lock and waking up the receiving thread only once. Messages keep their
+     * relative order.
+     *
+     * @param msgs The messages to enqueue.
+     * @param uptimeMillis The absolute time at which the messages should be
+     *         delivered, using the {@link android.os.SystemClock#uptimeMillis} time-base.
+     *
+     * @return Returns true if the messages were successfully placed in to the
+     *         message queue.  Returns false on failure, usually because the
+     *         looper processing the message queue is exiting.
+     *
+     * @hide
+     */
+    public final boolean sendMessagesAtTime(Message[] msgs, long uptimeMillis) {
+        MessageQueue queue = mQueue;
+        if (queue == null) {
+            RuntimeException e = new RuntimeException(
+                    this + " sendMessagesAtTime() called with no mQueue");
+            Log.w("Looper", e.getMessage(), e);
+            return false;
+        }
+        if (msgs.length == 0) {
+            return true;
+        }
+        for (Message msg : msgs) {
+            msg.target = this;
+            if (mAsynchronous) {
+                msg.setAsynchronous(true);
+            }
+        }
+        return queue.enqueueMessages(msgs, msgs.length, uptimeMillis);
+    }
+
+    /**
+     * Causes the Runnables to be added to the message queue at once, to be run in
+     * order on the thread to which this handler is attached.
+     *
+     * @return Returns true if the Runnables were successfully placed in to the
+     *         message queue.  Returns false on failure, usually because the
+     *         looper processing the message queue is exiting.
+     *
+     * @hide
+     */
+    public final boolean postAll(Runnable... runnables) {
+        final Message[] msgs = new Message[runnables.length];
+        for (int i = 0; i < runnables.length; i++) {
+            msgs[i] = getPostMessage(runnables[i]);
+        }
+        return sendMessagesAtTime(msgs, SystemClock.uptimeMillis());
+    }
+
     private boolean enqueueMessage(MessageQueue queue, Message msg, long uptimeMillis) {
         msg.target = this;
         if (mAsynchronous) {
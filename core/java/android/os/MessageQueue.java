@@ -533,12 +533,7 @@ public final class MessageQueue {
     }
 
     boolean enqueueMessage(Message msg, long when) {
-        if (msg.target == null) {
-            throw new IllegalArgumentException("Message must have a target.");
-        }
-        if (msg.isInUse()) {
-            throw new IllegalStateException(msg + " This message is already in use.");
-        }
+        checkEnqueueable(msg);
 
         synchronized (this) {
             if (mQuitting) {
@@ -549,43 +544,148 @@ public final class MessageQueue {
                 return false;
             }
 
-            msg.markInUse();
-            msg.when = when;
-            Message p = mMessages;
-            boolean needWake;
-            if (p == null || when == 0 || when < p.when) {
-                // New head, wake up the event queue if blocked.
-                msg.next = p;
-                mMessages = msg;
-                needWake = mBlocked;
-            } else {
-                // Inserted within the middle of the queue.  Usually we don't have to wake
-                // up the event queue unless there is a barrier at the head of the queue
-                // and the message is the earliest asynchronous message in the queue.
-                needWake = mBlocked && p.target == null && msg.isAsynchronous();
-                Message prev;
-                for (;;) {
-                    prev = p;
-                    p = p.next;
-                    if (p == null || when < p.when) {
-                        break;
-                    }
-                    if (needWake && p.isAsynchronous()) {
-                        needWake = false;
+            // We can assume mPtr != 0 because mQuitting is false.
+            if (insertMessageLocked(msg, when)) {
+                nativeWake(mPtr);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Enqueues the first {@code count} messages of {@code msgs}, all to be delivered at
+     * {@code when}, while taking the queue lock and waking up the looper at most once.
+     * Messages with the same delivery time keep their relative order.
+     */
+    boolean enqueueMessages(Message[] msgs, int count, long when) {
+        if (count == 0) {
+            return true;
+        }
+
+        synchronized (this) {
+            // Check and claim the messages one at a time under the lock, so that a message
+            // appearing twice in the batch or being enqueued concurrently is rejected.
+            for (int i = 0; i < count; i++) {
+                final Message msg = msgs[i];
+                try {
+                    checkEnqueueable(msg);
+                } catch (RuntimeException e) {
+                    for (int j = 0; j < i; j++) {
+                        msgs[j].flags &= ~Message.FLAG_IN_USE;
                     }
+                    throw e;
                 }
-                msg.next = p; // invariant: p == prev.next
-                prev.next = msg;
+                msg.markInUse();
+            }
+
+            if (mQuitting) {
+                IllegalStateException e = new IllegalStateException(
+                        msgs[0].target + " sending messages to a Handler on a dead thread");
+                Log.w(TAG, e.getMessage(), e);
+                for (int i = 0; i < count; i++) {
+                    msgs[i].recycleUnchecked();
+                }
+                return false;
             }
 
             // We can assume mPtr != 0 because mQuitting is false.
-            if (needWake) {
+            if (insertMessagesLocked(msgs, count, when)) {
                 nativeWake(mPtr);
             }
         }
         return true;
     }
 
+    private static void checkEnqueueable(Message msg) {
+        if (msg.target == null) {
+            throw new IllegalArgumentException("Message must have a target.");
+        }
+        if (msg.isInUse()) {
+            throw new IllegalStateException(msg + " This message is already in use.");
+        }
+    }
+
+    /**
+     * Inserts {@code msg} into the queue, ordered by {@code when}.
+     *
+     * @return whether the looper needs to be woken up.
+     */
+    private boolean insertMessageLocked(Message msg, long when) {
+        msg.markInUse();
+        msg.when = when;
+        Message p = mMessages;
+        boolean needWake;
+        if (p == null || when == 0 || when < p.when) {
+            // New head, wake up the event queue if blocked.
+            msg.next = p;
+            mMessages = msg;
+            needWake = mBlocked;
+        } else {
+            // Inserted within the middle of the queue.  Usually we don't have to wake
+            // up the event queue unless there is a barrier at the head of the queue
+            // and the message is the earliest asynchronous message in the queue.
+            needWake = mBlocked && p.target == null && msg.isAsynchronous();
+            Message prev;
+            for (;;) {
+                prev = p;
+                p = p.next;
+                if (p == null || when < p.when) {
+                    break;
+                }
+                if (needWake && p.isAsynchronous()) {
+                    needWake = false;
+                }
+            }
+            msg.next = p; // invariant: p == prev.next
+            prev.next = msg;
+        }
+        return needWake;
+    }
+
+    /**
+     * Links the first {@code count} messages of {@code msgs}, in order, into the queue at
+     * the position a single message with the given {@code when} would take.
+     *
+     * @return whether the looper needs to be woken up.
+     */
+    private boolean insertMessagesLocked(Message[] msgs, int count, long when) {
+        boolean async = false;
+        for (int i = 0; i < count; i++) {
+            final Message msg = msgs[i];
+            msg.when = when;
+            msg.next = i + 1 < count ? msgs[i + 1] : null;
+            async |= msg.isAsynchronous();
+        }
+        final Message first = msgs[0];
+        final Message last = msgs[count - 1];
+        Message p = mMessages;
+        boolean needWake;
+        if (p == null || when == 0 || when < p.when) {
+            // New head, wake up the event queue if blocked.
+            last.next = p;
+            mMessages = first;
+            needWake = mBlocked;
+        } else {
+            // Same as insertMessageLocked(), for the earliest asynchronous message of
+            // the batch.
+            needWake = mBlocked && p.target == null && async;
+            Message prev;
+            for (;;) {
+                prev = p;
+                p = p.next;
+                if (p == null || when < p.when) {
+                    break;
+                }
+                if (needWake && p.isAsynchronous()) {
+                    needWake = false;
+                }
+            }
+            last.next = p; // invariant: p == prev.next
+            prev.next = first;
+        }
+        return needWake;
+    }
+
     boolean hasMessages(Handler h, int what, Object object) {
         if (h == null) {
             return false;
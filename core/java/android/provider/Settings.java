@@ -72,6 +72,7 @@ import android.util.Log;
 import android.util.MemoryIntArray;
 
 import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.util.ArrayUtils;
 import com.android.internal.widget.ILockSettings;
 
@@ -80,6 +81,7 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.URISyntaxException;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Locale;
@@ -1478,6 +1480,28 @@ public final class Settings {
      */
     public static final String CALL_METHOD_GENERATION_KEY = "_generation";
 
+    /**
+     * @hide Key with the number of generation buckets of the backing table. Each table
+     * owns this many consecutive entries of the {@link android.util.MemoryIntArray},
+     * starting at {@link #CALL_METHOD_GENERATION_INDEX_KEY}, and a change to a setting
+     * only increments the entry of the bucket its name falls into. The value is an integer,
+     * a missing value means a single bucket.
+     *
+     * @see #getGenerationBucket(String, int)
+     */
+    public static final String CALL_METHOD_GENERATION_BUCKETS_KEY = "_generation_buckets";
+
+    /**
+     * @hide Returns the generation bucket of the setting {@code name} in a table with
+     * {@code bucketCount} buckets, which must be a power of two.
+     *
+     * @see #CALL_METHOD_GENERATION_BUCKETS_KEY
+     */
+    public static int getGenerationBucket(String name, int bucketCount) {
+        final int hash = name.hashCode();
+        return (hash ^ (hash >>> 16)) & (bucketCount - 1);
+    }
+
     /**
      * @hide - User handle argument extra to the fast-path call()-based requests
      */
@@ -1713,30 +1737,42 @@ public final class Settings {
         private final MemoryIntArray mArray;
         private final Runnable mErrorHandler;
         private final int mIndex;
-        private int mCurrentGeneration;
+        private final int[] mCurrentGenerations;
 
-        public GenerationTracker(@NonNull MemoryIntArray array, int index,
-                int generation, Runnable errorHandler) {
+        public GenerationTracker(@NonNull MemoryIntArray array, int index, int bucketCount,
+                String name, int generation, Runnable errorHandler) {
             mArray = array;
             mIndex = index;
             mErrorHandler = errorHandler;
-            mCurrentGeneration = generation;
+            mCurrentGenerations = new int[bucketCount];
+            // The generation of the other buckets is read on their first lookup.
+            Arrays.fill(mCurrentGenerations, -1);
+            mCurrentGenerations[getBucket(name)] = generation;
+        }
+
+        public int getBucket(String name) {
+            return getGenerationBucket(name, mCurrentGenerations.length);
         }
 
-        public boolean isGenerationChanged() {
-            final int currentGeneration = readCurrentGeneration();
+        /**
+         * Returns whether the generation of the bucket of {@code name} changed since the
+         * last call for a setting in that bucket.
+         */
+        public boolean isGenerationChanged(String name) {
+            final int bucket = getBucket(name);
+            final int currentGeneration = readCurrentGeneration(bucket);
             if (currentGeneration >= 0) {
-                if (currentGeneration == mCurrentGeneration) {
+                if (currentGeneration == mCurrentGenerations[bucket]) {
                     return false;
                 }
-                mCurrentGeneration = currentGeneration;
+                mCurrentGenerations[bucket] = currentGeneration;
             }
             return true;
         }
 
-        private int readCurrentGeneration() {
+        private int readCurrentGeneration(int bucket) {
             try {
-                return mArray.get(mIndex);
+                return mArray.get(mIndex + bucket);
             } catch (IOException e) {
                 Log.e(TAG, "Error getting current generation", e);
                 if (mErrorHandler != null) {
@@ -1758,7 +1794,8 @@ public final class Settings {
         }
     }
 
-    private static final class ContentProviderHolder {
+    @VisibleForTesting
+    static final class ContentProviderHolder {
         private final Object mLock = new Object();
 
         @GuardedBy("mLock")
@@ -1782,7 +1819,8 @@ public final class Settings {
     }
 
     // Thread-safe.
-    private static class NameValueCache {
+    @VisibleForTesting
+    static class NameValueCache {
         private static final boolean DEBUG = false;
 
         private static final String[] SELECT_VALUE_PROJECTION = new String[] {
@@ -1839,13 +1877,16 @@ public final class Settings {
             if (isSelf) {
                 synchronized (NameValueCache.this) {
                     if (mGenerationTracker != null) {
-                        if (mGenerationTracker.isGenerationChanged()) {
+                        if (mGenerationTracker.isGenerationChanged(name)) {
                             if (DEBUG) {
                                 Log.i(TAG, "Generation changed for type:"
                                         + mUri.getPath() + " in package:"
                                         + cr.getPackageName() +" and user:" + userHandle);
                             }
-                            mValues.clear();
+                            // Only the values in the bucket of this setting are stale.
+                            final GenerationTracker tracker = mGenerationTracker;
+                            final int bucket = tracker.getBucket(name);
+                            mValues.keySet().removeIf(key -> tracker.getBucket(key) == bucket);
                         } else if (mValues.containsKey(name)) {
                             return mValues.get(name);
                         }
@@ -1914,6 +1955,8 @@ public final class Settings {
                                     if (array != null && index >= 0) {
                                         final int generation = b.getInt(
                                                 CALL_METHOD_GENERATION_KEY, 0);
+                                        final int bucketCount = b.getInt(
+                                                CALL_METHOD_GENERATION_BUCKETS_KEY, 1);
                                         if (DEBUG) {
                                             Log.i(TAG, "Received generation tracker for type:"
                                                     + mUri.getPath() + " in package:"
@@ -1924,7 +1967,7 @@ public final class Settings {
                                             mGenerationTracker.destroy();
                                         }
                                         mGenerationTracker = new GenerationTracker(array, index,
-                                                generation, () -> {
+                                                bucketCount, name, generation, () -> {
                                             synchronized (NameValueCache.this) {
                                                 Log.e(TAG, "Error accessing generation"
                                                         + " tracker - removing");
@@ -95,6 +95,8 @@ import java.util.Calendar;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -641,10 +643,25 @@ public class BatteryStatsImpl extends BatteryStats {
     public interface TimeBaseObs {
         void onTimeStarted(long elapsedRealtime, long baseUptime, long baseRealtime);
         void onTimeStopped(long elapsedRealtime, long baseUptime, long baseRealtime);
+
+        /**
+         * Returns the position of this observer in the observer list of the {@link TimeBase}
+         * it was added to, or -1 if it is not attached to one.
+         */
+        int getTimeBaseIndex();
+
+        /**
+         * Only called by {@link TimeBase} to record the position of this observer.
+         */
+        void setTimeBaseIndex(int index);
     }
 
     // methods are protected not private to be VisibleForTesting
     public static class TimeBase {
+        /**
+         * Each observer stores its own position in this list, so that it can be removed in
+         * constant time; resetting or removing a uid detaches thousands of them.
+         */
         protected final ArrayList<TimeBaseObs> mObservers = new ArrayList<>();
 
         protected long mUptime;
@@ -689,17 +706,33 @@ public class BatteryStatsImpl extends BatteryStats {
         }
 
         public void add(TimeBaseObs observer) {
+            if (observer.getTimeBaseIndex() >= 0) {
+                Slog.wtf(TAG, "Added observer that is already attached: " + observer);
+                return;
+            }
+            observer.setTimeBaseIndex(mObservers.size());
             mObservers.add(observer);
         }
 
         public void remove(TimeBaseObs observer) {
-            if (!mObservers.remove(observer)) {
+            if (!hasObserver(observer)) {
                 Slog.wtf(TAG, "Removed unknown observer: " + observer);
+                return;
+            }
+            final int index = observer.getTimeBaseIndex();
+            observer.setTimeBaseIndex(-1);
+            // Observers are independent of each other, so the order of mObservers does not
+            // matter: move the last observer into the freed slot.
+            final TimeBaseObs last = mObservers.remove(mObservers.size() - 1);
+            if (last != observer) {
+                mObservers.set(index, last);
+                last.setTimeBaseIndex(index);
             }
         }
 
         public boolean hasObserver(TimeBaseObs observer) {
-            return mObservers.contains(observer);
+            final int index = observer.getTimeBaseIndex();
+            return index >= 0 && index < mObservers.size() && mObservers.get(index) == observer;
         }
 
         public void init(long uptime, long realtime) {
@@ -850,6 +883,7 @@ public class BatteryStatsImpl extends BatteryStats {
     public static class Counter extends BatteryStats.Counter implements TimeBaseObs {
         final AtomicInteger mCount = new AtomicInteger();
         final TimeBase mTimeBase;
+        private int mTimeBaseIndex = -1;
         int mLoadedCount;
         int mUnpluggedCount;
         int mPluggedCount;
@@ -874,6 +908,16 @@ public class BatteryStatsImpl extends BatteryStats {
             out.writeInt(mUnpluggedCount);
         }
 
+        @Override
+        public int getTimeBaseIndex() {
+            return mTimeBaseIndex;
+        }
+
+        @Override
+        public void setTimeBaseIndex(int index) {
+            mTimeBaseIndex = index;
+        }
+
         @Override
         public void onTimeStarted(long elapsedRealtime, long baseUptime, long baseRealtime) {
             mUnpluggedCount = mPluggedCount;
@@ -964,6 +1008,7 @@ public class BatteryStatsImpl extends BatteryStats {
     @VisibleForTesting
     public static class LongSamplingCounterArray extends LongCounterArray implements TimeBaseObs {
         final TimeBase mTimeBase;
+        private int mTimeBaseIndex = -1;
         public long[] mCounts;
         public long[] mLoadedCounts;
         public long[] mUnpluggedCounts;
@@ -989,6 +1034,16 @@ public class BatteryStatsImpl extends BatteryStats {
             out.writeLongArray(mUnpluggedCounts);
         }
 
+        @Override
+        public int getTimeBaseIndex() {
+            return mTimeBaseIndex;
+        }
+
+        @Override
+        public void setTimeBaseIndex(int index) {
+            mTimeBaseIndex = index;
+        }
+
         @Override
         public void onTimeStarted(long elapsedRealTime, long baseUptime, long baseRealtime) {
             mUnpluggedCounts = copyArray(mPluggedCounts, mUnpluggedCounts);
@@ -1129,6 +1184,7 @@ public class BatteryStatsImpl extends BatteryStats {
 
     public static class LongSamplingCounter extends LongCounter implements TimeBaseObs {
         final TimeBase mTimeBase;
+        private int mTimeBaseIndex = -1;
         long mCount;
         long mLoadedCount;
         long mUnpluggedCount;
@@ -1154,6 +1210,16 @@ public class BatteryStatsImpl extends BatteryStats {
             out.writeLong(mUnpluggedCount);
         }
 
+        @Override
+        public int getTimeBaseIndex() {
+            return mTimeBaseIndex;
+        }
+
+        @Override
+        public void setTimeBaseIndex(int index) {
+            mTimeBaseIndex = index;
+        }
+
         @Override
         public void onTimeStarted(long elapsedRealtime, long baseUptime, long baseRealtime) {
             mUnpluggedCount = mPluggedCount;
@@ -1221,6 +1287,7 @@ public class BatteryStatsImpl extends BatteryStats {
         protected final Clocks mClocks;
         protected final int mType;
         protected final TimeBase mTimeBase;
+        private int mTimeBaseIndex = -1;
 
         protected int mCount;
         protected int mLoadedCount;
@@ -1326,6 +1393,16 @@ public class BatteryStatsImpl extends BatteryStats {
             out.writeLong(mTimeBeforeMark);
         }
 
+        @Override
+        public int getTimeBaseIndex() {
+            return mTimeBaseIndex;
+        }
+
+        @Override
+        public void setTimeBaseIndex(int index) {
+            mTimeBaseIndex = index;
+        }
+
         @Override
         public void onTimeStarted(long elapsedRealtime, long timeBaseUptime, long baseRealtime) {
             if (DEBUG && mType < 0) {
@@ -7584,6 +7661,7 @@ public class BatteryStatsImpl extends BatteryStats {
              * BatteryStatsImpl that we are associated with.
              */
             protected BatteryStatsImpl mBsi;
+            private int mTimeBaseIndex = -1;
 
             /**
              * The name of this process.
@@ -7693,6 +7771,16 @@ public class BatteryStatsImpl extends BatteryStats {
                 mBsi.mOnBatteryTimeBase.add(this);
             }
 
+            @Override
+            public int getTimeBaseIndex() {
+                return mTimeBaseIndex;
+            }
+
+            @Override
+            public void setTimeBaseIndex(int index) {
+                mTimeBaseIndex = index;
+            }
+
             public void onTimeStarted(long elapsedRealtime, long baseUptime, long baseRealtime) {
                 mUnpluggedUserTime = mUserTime;
                 mUnpluggedSystemTime = mSystemTime;
@@ -7926,6 +8014,7 @@ public class BatteryStatsImpl extends BatteryStats {
              * BatteryStatsImpl that we are associated with.
              */
             protected BatteryStatsImpl mBsi;
+            private int mTimeBaseIndex = -1;
 
             /**
              * Number of times wakeup alarms have occurred for this app.
@@ -7942,6 +8031,16 @@ public class BatteryStatsImpl extends BatteryStats {
                 mBsi.mOnBatteryScreenOffTimeBase.add(this);
             }
 
+            @Override
+            public int getTimeBaseIndex() {
+                return mTimeBaseIndex;
+            }
+
+            @Override
+            public void setTimeBaseIndex(int index) {
+                mTimeBaseIndex = index;
+            }
+
             public void onTimeStarted(long elapsedRealtime, long baseUptime, long baseRealtime) {
             }
 
@@ -8015,6 +8114,7 @@ public class BatteryStatsImpl extends BatteryStats {
                  * BatteryStatsImpl that we are associated with.
                  */
                 protected BatteryStatsImpl mBsi;
+                private int mTimeBaseIndex = -1;
 
                 /**
                  * The android package in which this service resides.
@@ -8119,6 +8219,16 @@ public class BatteryStatsImpl extends BatteryStats {
                     mBsi.mOnBatteryTimeBase.add(this);
                 }
 
+                @Override
+                public int getTimeBaseIndex() {
+                    return mTimeBaseIndex;
+                }
+
+                @Override
+                public void setTimeBaseIndex(int index) {
+                    mTimeBaseIndex = index;
+                }
+
                 public void onTimeStarted(long elapsedRealtime, long baseUptime,
                         long baseRealtime) {
                     mUnpluggedStartTime = getStartTimeToNowLocked(baseUptime);
@@ -11066,6 +11176,22 @@ public class BatteryStatsImpl extends BatteryStats {
     Parcel mPendingWrite = null;
     final ReentrantLock mWriteLock = new ReentrantLock();
 
+    /**
+     * Set while an asynchronous write is scheduled but has not taken its snapshot of the
+     * stats yet.  Further asynchronous write requests are folded into that write.
+     */
+    boolean mAsyncWritePending;
+
+    /**
+     * Runs asynchronous writes.  An asynchronous write takes its snapshot under the stats
+     * lock, so it gets its own thread instead of blocking the shared background thread.
+     */
+    @VisibleForTesting
+    Executor mAsyncWriteExecutor = Executors.newSingleThreadExecutor(r -> new Thread(() -> {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        r.run();
+    }, "batterystats-write"));
+
     public void writeAsyncLocked() {
         writeLocked(false);
     }
@@ -11084,6 +11210,32 @@ public class BatteryStatsImpl extends BatteryStats {
             return;
         }
 
+        if (sync) {
+            // This snapshot supersedes the one of any scheduled asynchronous write.
+            mAsyncWritePending = false;
+            snapshotForWriteLocked();
+            commitPendingDataToDisk();
+        } else if (!mAsyncWritePending) {
+            // The snapshot is taken when the write runs, so that all requests made in the
+            // meantime only cost a single serialization of the stats.
+            mAsyncWritePending = true;
+            mAsyncWriteExecutor.execute(new Runnable() {
+                @Override public void run() {
+                    synchronized (BatteryStatsImpl.this) {
+                        if (!mAsyncWritePending || mShuttingDown) {
+                            return;
+                        }
+                        mAsyncWritePending = false;
+                        snapshotForWriteLocked();
+                    }
+                    commitPendingDataToDisk();
+                }
+            });
+        }
+    }
+
+    @VisibleForTesting
+    void snapshotForWriteLocked() {
         Parcel out = Parcel.obtain();
         writeSummaryToParcel(out, true);
         mLastWriteTime = mClocks.elapsedRealtime();
@@ -11092,16 +11244,6 @@ public class BatteryStatsImpl extends BatteryStats {
             mPendingWrite.recycle();
         }
         mPendingWrite = out;
-
-        if (sync) {
-            commitPendingDataToDisk();
-        } else {
-            BackgroundThread.getHandler().post(new Runnable() {
-                @Override public void run() {
-                    commitPendingDataToDisk();
-                }
-            });
-        }
     }
 
     public void commitPendingDataToDisk() {
@@ -21,10 +21,11 @@ import android.util.Slog;
 import android.util.SparseArray;
 
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.ProcFileReader;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * Reads /proc/uid_time_in_state which has the format:
@@ -38,13 +39,24 @@ import java.io.IOException;
  * The file contains a monotonically increasing count of time for a single boot. This class
  * maintains the previous results of a call to {@link #readDelta} in order to provide a proper
  * delta.
+ *
+ * The file is parsed with a {@link ProcFileReader} over a buffer that is reused between calls,
+ * and per-UID deltas are reported through a shared array, so a read only allocates when a new
+ * UID shows up.
  */
 public class KernelUidCpuFreqTimeReader {
     private static final String TAG = "KernelUidCpuFreqTimeReader";
     private static final String UID_TIMES_PROC_FILE = "/proc/uid_time_in_state";
+    private static final int READ_BUFFER_SIZE = 8192;
 
     public interface Callback {
         void onCpuFreqs(long[] cpuFreqs);
+
+        /**
+         * @param uid UID of the app
+         * @param cpuFreqTimeMs time spent at each cpu frequency since the last read. The array
+         *                      is reused for every UID and is only valid during this call.
+         */
         void onUidCpuFreqTime(int uid, long[] cpuFreqTimeMs);
     }
 
@@ -53,22 +65,37 @@ public class KernelUidCpuFreqTimeReader {
 
     private SparseArray<long[]> mLastUidCpuFreqTimeMs = new SparseArray<>();
 
+    private final String mProcFile;
+    private final byte[] mReadBuffer = new byte[READ_BUFFER_SIZE];
+    private long[] mCurTimesMs;
+    private long[] mDeltaTimesMs;
+
     // We check the existence of proc file a few times (just in case it is not ready yet when we
     // start reading) and if it is not available, we simply ignore further read requests.
     private static final int TOTAL_READ_ERROR_COUNT = 5;
     private int mReadErrorCounter;
     private boolean mProcFileAvailable;
 
+    public KernelUidCpuFreqTimeReader() {
+        this(UID_TIMES_PROC_FILE);
+    }
+
+    @VisibleForTesting
+    public KernelUidCpuFreqTimeReader(String procFile) {
+        mProcFile = procFile;
+    }
+
     public void readDelta(@Nullable Callback callback) {
         if (!mProcFileAvailable && mReadErrorCounter >= TOTAL_READ_ERROR_COUNT) {
             return;
         }
-        try (BufferedReader reader = new BufferedReader(new FileReader(UID_TIMES_PROC_FILE))) {
+        try (ProcFileReader reader = new ProcFileReader(new FileInputStream(mProcFile),
+                mReadBuffer)) {
             readDelta(reader, callback);
             mProcFileAvailable = true;
-        } catch (IOException e) {
+        } catch (IOException | NumberFormatException e) {
             mReadErrorCounter++;
-            Slog.e(TAG, "Failed to read " + UID_TIMES_PROC_FILE + ": " + e);
+            Slog.e(TAG, "Failed to read " + mProcFile + ": " + e);
         }
     }
 
@@ -77,54 +104,67 @@ public class KernelUidCpuFreqTimeReader {
     }
 
     @VisibleForTesting
-    public void readDelta(BufferedReader reader, @Nullable Callback callback) throws IOException {
-        String line = reader.readLine();
-        if (line == null) {
+    public void readDelta(ProcFileReader reader, @Nullable Callback callback) throws IOException {
+        if (!reader.hasMoreData()) {
             return;
         }
-        readCpuFreqs(line, callback);
-        while ((line = reader.readLine()) != null) {
-            final int index = line.indexOf(' ');
-            final int uid = Integer.parseInt(line.substring(0, index - 1), 10);
-            readTimesForUid(uid, line.substring(index + 1, line.length()), callback);
+        readCpuFreqs(reader, callback);
+        while (reader.hasMoreData()) {
+            final int uid = reader.nextInt(':');
+            readTimesForUid(uid, reader, callback);
         }
     }
 
-    private void readTimesForUid(int uid, String line, Callback callback) {
+    private void readTimesForUid(int uid, ProcFileReader reader, Callback callback)
+            throws IOException {
+        int size = 0;
+        long time;
+        while ((time = reader.nextOptionalLong(-1)) >= 0) {
+            if (size < mCpuFreqsCount) {
+                // Times read will be in units of 10ms
+                mCurTimesMs[size] = time * 10;
+            }
+            size++;
+        }
+        reader.finishLine();
+        if (size != mCpuFreqsCount) {
+            Slog.e(TAG, "No. of readings don't match cpu freqs, readings: " + size
+                    + " cpuFreqsCount: " + mCpuFreqsCount);
+            return;
+        }
         long[] uidTimeMs = mLastUidCpuFreqTimeMs.get(uid);
         if (uidTimeMs == null) {
             uidTimeMs = new long[mCpuFreqsCount];
             mLastUidCpuFreqTimeMs.put(uid, uidTimeMs);
         }
-        final String[] timesStr = line.split(" ");
-        final int size = timesStr.length;
-        if (size != uidTimeMs.length) {
-            Slog.e(TAG, "No. of readings don't match cpu freqs, readings: " + size
-                    + " cpuFreqsCount: " + uidTimeMs.length);
-            return;
-        }
-        final long[] deltaUidTimeMs = new long[size];
         for (int i = 0; i < size; ++i) {
-            // Times read will be in units of 10ms
-            final long totalTimeMs = Long.parseLong(timesStr[i], 10) * 10;
-            deltaUidTimeMs[i] = totalTimeMs - uidTimeMs[i];
-            uidTimeMs[i] = totalTimeMs;
+            mDeltaTimesMs[i] = mCurTimesMs[i] - uidTimeMs[i];
+            uidTimeMs[i] = mCurTimesMs[i];
         }
         if (callback != null) {
-            callback.onUidCpuFreqTime(uid, deltaUidTimeMs);
+            callback.onUidCpuFreqTime(uid, mDeltaTimesMs);
         }
     }
 
-    private void readCpuFreqs(String line, Callback callback) {
+    private void readCpuFreqs(ProcFileReader reader, Callback callback) throws IOException {
         if (mCpuFreqs == null) {
-            final String[] freqStr = line.split(" ");
             // First item would be "uid:" which needs to be ignored
-            mCpuFreqsCount = freqStr.length - 1;
-            mCpuFreqs = new long[mCpuFreqsCount];
-            for (int i = 0; i < mCpuFreqsCount; ++i) {
-                mCpuFreqs[i] = Long.parseLong(freqStr[i + 1], 10);
+            reader.nextString();
+            long[] freqs = new long[16];
+            int count = 0;
+            long freq;
+            while ((freq = reader.nextOptionalLong(-1)) >= 0) {
+                if (count == freqs.length) {
+                    freqs = Arrays.copyOf(freqs, count * 2);
+                }
+                freqs[count++] = freq;
             }
+            mCpuFreqsCount = count;
+            mCpuFreqs = Arrays.copyOf(freqs, count);
+            mCurTimesMs = new long[count];
+            mDeltaTimesMs = new long[count];
         }
+        reader.finishLine();
         if (callback != null) {
             callback.onCpuFreqs(mCpuFreqs);
         }
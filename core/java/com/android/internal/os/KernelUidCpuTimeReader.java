@@ -17,13 +17,14 @@ package com.android.internal.os;
 
 import android.annotation.Nullable;
 import android.os.SystemClock;
-import android.text.TextUtils;
 import android.util.Slog;
 import android.util.SparseLongArray;
 import android.util.TimeUtils;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.ProcFileReader;
+
+import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 
@@ -36,11 +37,15 @@ import java.io.IOException;
  * The file contains a monotonically increasing count of time for a single boot. This class
  * maintains the previous results of a call to {@link #readDelta} in order to provide a proper
  * delta.
+ *
+ * The file is parsed with a {@link ProcFileReader} over a buffer that is reused between calls,
+ * so a read does not allocate per line.
  */
 public class KernelUidCpuTimeReader {
     private static final String TAG = "KernelUidCpuTimeReader";
     private static final String sProcFile = "/proc/uid_cputime/show_uid_stat";
     private static final String sRemoveUidProcFile = "/proc/uid_cputime/remove_uid_range";
+    private static final int READ_BUFFER_SIZE = 8192;
 
     /**
      * Callback interface for processing each line of the proc file.
@@ -58,6 +63,18 @@ public class KernelUidCpuTimeReader {
     private SparseLongArray mLastSystemTimeUs = new SparseLongArray();
     private long mLastTimeReadUs = 0;
 
+    private final String mProcFile;
+    private final byte[] mReadBuffer = new byte[READ_BUFFER_SIZE];
+
+    public KernelUidCpuTimeReader() {
+        this(sProcFile);
+    }
+
+    @VisibleForTesting
+    public KernelUidCpuTimeReader(String procFile) {
+        mProcFile = procFile;
+    }
+
     /**
      * Reads the proc file, calling into the callback with a delta of time for each UID.
      * @param callback The callback to invoke for each line of the proc file. If null,
@@ -66,15 +83,13 @@ public class KernelUidCpuTimeReader {
      */
     public void readDelta(@Nullable Callback callback) {
         long nowUs = SystemClock.elapsedRealtime() * 1000;
-        try (BufferedReader reader = new BufferedReader(new FileReader(sProcFile))) {
-            TextUtils.SimpleStringSplitter splitter = new TextUtils.SimpleStringSplitter(' ');
-            String line;
-            while ((line = reader.readLine()) != null) {
-                splitter.setString(line);
-                final String uidStr = splitter.next();
-                final int uid = Integer.parseInt(uidStr.substring(0, uidStr.length() - 1), 10);
-                final long userTimeUs = Long.parseLong(splitter.next(), 10);
-                final long systemTimeUs = Long.parseLong(splitter.next(), 10);
+        try (ProcFileReader reader = new ProcFileReader(new FileInputStream(mProcFile),
+                mReadBuffer)) {
+            while (reader.hasMoreData()) {
+                final int uid = reader.nextInt(':');
+                final long userTimeUs = reader.nextLong();
+                final long systemTimeUs = reader.nextLong();
+                reader.finishLine();
 
                 // Only report if there is a callback and if this is not the first read.
                 if (callback != null && mLastTimeReadUs != 0) {
@@ -119,7 +134,7 @@ public class KernelUidCpuTimeReader {
                 mLastUserTimeUs.put(uid, userTimeUs);
                 mLastSystemTimeUs.put(uid, systemTimeUs);
             }
-        } catch (IOException e) {
+        } catch (IOException | NumberFormatException e) {
             Slog.e(TAG, "Failed to read uid_cputime: " + e.getMessage());
         }
         mLastTimeReadUs = nowUs;
@@ -30,7 +30,6 @@ import com.android.internal.util.FastPrintWriter;
 import libcore.io.IoUtils;
 import libcore.io.Libcore;
 
-import java.io.File;
 import java.io.FileInputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
@@ -63,19 +62,27 @@ public class ProcessCpuTracker {
         PROC_SPACE_TERM,
         PROC_SPACE_TERM|PROC_OUT_LONG,                  // 14: utime
         PROC_SPACE_TERM|PROC_OUT_LONG,                  // 15: stime
+        PROC_SPACE_TERM,
+        PROC_SPACE_TERM,
+        PROC_SPACE_TERM,
+        PROC_SPACE_TERM,
+        PROC_SPACE_TERM,
+        PROC_SPACE_TERM,
+        PROC_SPACE_TERM|PROC_OUT_LONG,                  // 22: start time
     };
 
     static final int PROCESS_STAT_MINOR_FAULTS = 0;
     static final int PROCESS_STAT_MAJOR_FAULTS = 1;
     static final int PROCESS_STAT_UTIME = 2;
     static final int PROCESS_STAT_STIME = 3;
+    static final int PROCESS_STAT_STARTTIME = 4;
 
     /** Stores user time and system time in jiffies. */
-    private final long[] mProcessStatsData = new long[4];
+    private final long[] mProcessStatsData = new long[5];
 
     /** Stores user time and system time in jiffies.  Used for
      * public API to retrieve CPU use for a process.  Must lock while in use. */
-    private final long[] mSinglePidStatsData = new long[4];
+    private final long[] mSinglePidStatsData = new long[5];
 
     private static final int[] PROCESS_FULL_STATS_FORMAT = new int[] {
         PROC_SPACE_TERM,
@@ -99,7 +106,7 @@ public class ProcessCpuTracker {
         PROC_SPACE_TERM,
         PROC_SPACE_TERM,
         PROC_SPACE_TERM,
-        PROC_SPACE_TERM,
+        PROC_SPACE_TERM|PROC_OUT_LONG,                  // 22: start time
         PROC_SPACE_TERM|PROC_OUT_LONG,                  // 23: vsize
     };
 
@@ -107,10 +114,11 @@ public class ProcessCpuTracker {
     static final int PROCESS_FULL_STAT_MAJOR_FAULTS = 2;
     static final int PROCESS_FULL_STAT_UTIME = 3;
     static final int PROCESS_FULL_STAT_STIME = 4;
-    static final int PROCESS_FULL_STAT_VSIZE = 5;
+    static final int PROCESS_FULL_STAT_STARTTIME = 5;
+    static final int PROCESS_FULL_STAT_VSIZE = 6;
 
-    private final String[] mProcessFullStatsStringData = new String[6];
-    private final long[] mProcessFullStatsData = new long[6];
+    private final String[] mProcessFullStatsStringData = new String[7];
+    private final long[] mProcessFullStatsData = new long[7];
 
     private static final int[] SYSTEM_CPU_FORMAT = new int[] {
         PROC_SPACE_TERM|PROC_COMBINE,
@@ -204,6 +212,12 @@ public class ProcessCpuTracker {
         // filter out kernel processes.
         public long vsize;
 
+        /**
+         * Start time in jiffies after boot, used to notice when the pid has been
+         * reused by a different process.
+         */
+        long starttime;
+
         /**
          * Time in milliseconds.
          */
@@ -244,13 +258,13 @@ public class ProcessCpuTracker {
         public boolean added;
         public boolean removed;
 
-        Stats(int _pid, int parentPid, boolean includeThreads) {
+        Stats(int _pid, int parentPid, int parentUid, boolean includeThreads) {
             pid = _pid;
             if (parentPid < 0) {
-                final File procDir = new File("/proc", Integer.toString(pid));
-                statFile = new File(procDir, "stat").toString();
-                cmdlineFile = new File(procDir, "cmdline").toString();
-                threadsDir = (new File(procDir, "task")).toString();
+                final String procDir = "/proc/" + pid;
+                statFile = procDir + "/stat";
+                cmdlineFile = procDir + "/cmdline";
+                threadsDir = procDir + "/task";
                 if (includeThreads) {
                     threadStats = new ArrayList<Stats>();
                     workingThreads = new ArrayList<Stats>();
@@ -258,18 +272,17 @@ public class ProcessCpuTracker {
                     threadStats = null;
                     workingThreads = null;
                 }
+                uid = FileUtils.getUid(statFile);
             } else {
-                final File procDir = new File("/proc", Integer.toString(
-                        parentPid));
-                final File taskDir = new File(
-                        new File(procDir, "task"), Integer.toString(pid));
-                statFile = new File(taskDir, "stat").toString();
+                statFile = "/proc/" + parentPid + "/task/" + pid + "/stat";
                 cmdlineFile = null;
                 threadsDir = null;
                 threadStats = null;
                 workingThreads = null;
+                // Threads share the uid of their process, so there's no need to
+                // stat every task directory.
+                uid = parentUid;
             }
-            uid = FileUtils.getUid(statFile.toString());
         }
     }
 
@@ -384,7 +397,7 @@ public class ProcessCpuTracker {
 
         final StrictMode.ThreadPolicy savedPolicy = StrictMode.allowThreadDiskReads();
         try {
-            mCurPids = collectStats("/proc", -1, mFirst, mCurPids, mProcStats);
+            mCurPids = collectStats("/proc", -1, -1, mFirst, mCurPids, mProcStats);
         } finally {
             StrictMode.setThreadPolicy(savedPolicy);
         }
@@ -410,7 +423,7 @@ public class ProcessCpuTracker {
         mFirst = false;
     }
 
-    private int[] collectStats(String statsFile, int parentPid, boolean first,
+    private int[] collectStats(String statsFile, int parentPid, int parentUid, boolean first,
             int[] curPids, ArrayList<Stats> allProcs) {
 
         int[] pids = Process.getPids(statsFile, curPids);
@@ -438,11 +451,30 @@ public class ProcessCpuTracker {
                     final long uptime = SystemClock.uptimeMillis();
 
                     final long[] procStats = mProcessStatsData;
-                    if (!Process.readProcFile(st.statFile.toString(),
+                    if (!Process.readProcFile(st.statFile,
                             PROCESS_STATS_FORMAT, null, procStats, null)) {
                         continue;
                     }
 
+                    if (procStats[PROCESS_STAT_STARTTIME] != st.starttime) {
+                        // The pid now belongs to a different process.  Report the old
+                        // one as gone, then revisit the pid so it is added as new.
+                        curStatsIndex--;
+                        st.rel_utime = 0;
+                        st.rel_stime = 0;
+                        st.rel_minfaults = 0;
+                        st.rel_majfaults = 0;
+                        st.removed = true;
+                        st.working = true;
+                        allProcs.remove(curStatsIndex);
+                        NS--;
+                        if (DEBUG) Slog.v(TAG, "Reused "
+                                + (parentPid < 0 ? "process" : "thread")
+                                + " pid " + pid + ": " + st);
+                        i--;
+                        continue;
+                    }
+
                     final long minfaults = procStats[PROCESS_STAT_MINOR_FAULTS];
                     final long majfaults = procStats[PROCESS_STAT_MAJOR_FAULTS];
                     final long utime = procStats[PROCESS_STAT_UTIME] * mJiffyMillis;
@@ -466,7 +498,7 @@ public class ProcessCpuTracker {
                     if (parentPid < 0) {
                         getName(st, st.cmdlineFile);
                         if (st.threadStats != null) {
-                            mCurThreadPids = collectStats(st.threadsDir, pid, false,
+                            mCurThreadPids = collectStats(st.threadsDir, pid, st.uid, false,
                                     mCurThreadPids, st.threadStats);
                         }
                     }
@@ -495,7 +527,7 @@ public class ProcessCpuTracker {
 
             if (st == null || st.pid > pid) {
                 // We have a new process!
-                st = new Stats(pid, parentPid, mIncludeThreads);
+                st = new Stats(pid, parentPid, parentUid, mIncludeThreads);
                 allProcs.add(curStatsIndex, st);
                 curStatsIndex++;
                 NS++;
@@ -506,15 +538,15 @@ public class ProcessCpuTracker {
                 final String[] procStatsString = mProcessFullStatsStringData;
                 final long[] procStats = mProcessFullStatsData;
                 st.base_uptime = SystemClock.uptimeMillis();
-                String path = st.statFile.toString();
-                //Slog.d(TAG, "Reading proc file: " + path);
-                if (Process.readProcFile(path, PROCESS_FULL_STATS_FORMAT, procStatsString,
+                //Slog.d(TAG, "Reading proc file: " + st.statFile);
+                if (Process.readProcFile(st.statFile, PROCESS_FULL_STATS_FORMAT, procStatsString,
                         procStats, null)) {
                     // This is a possible way to filter out processes that
                     // are actually kernel threads...  do we want to?  Some
                     // of them do use CPU, but there can be a *lot* that are
                     // not doing anything.
                     st.vsize = procStats[PROCESS_FULL_STAT_VSIZE];
+                    st.starttime = procStats[PROCESS_FULL_STAT_STARTTIME];
                     if (true || procStats[PROCESS_FULL_STAT_VSIZE] != 0) {
                         st.interesting = true;
                         st.baseName = procStatsString[0];
@@ -537,7 +569,7 @@ public class ProcessCpuTracker {
                 if (parentPid < 0) {
                     getName(st, st.cmdlineFile);
                     if (st.threadStats != null) {
-                        mCurThreadPids = collectStats(st.threadsDir, pid, true,
+                        mCurThreadPids = collectStats(st.threadsDir, pid, st.uid, true,
                                 mCurThreadPids, st.threadStats);
                     }
                 } else if (st.interesting) {
@@ -35,6 +35,8 @@ public class ProcFileReader implements Closeable {
     private final InputStream mStream;
     private final byte[] mBuffer;
 
+    /** Read pointer in {@link #mBuffer}. */
+    private int mHead;
     /** Write pointer in {@link #mBuffer}. */
     private int mTail;
     /** Flag when last read token finished current line. */
@@ -45,8 +47,16 @@ public class ProcFileReader implements Closeable {
     }
 
     public ProcFileReader(InputStream stream, int bufferSize) throws IOException {
+        this(stream, new byte[bufferSize]);
+    }
+
+    /**
+     * Create a reader that parses into the given buffer, allowing callers that
+     * read the same file repeatedly to avoid allocating a new buffer each time.
+     */
+    public ProcFileReader(InputStream stream, byte[] buffer) throws IOException {
         mStream = stream;
-        mBuffer = new byte[bufferSize];
+        mBuffer = buffer;
 
         // read enough to answer hasMoreData
         fillBuf();
@@ -56,6 +66,13 @@ public class ProcFileReader implements Closeable {
      * Read more data from {@link #mStream} into internal buffer.
      */
     private int fillBuf() throws IOException {
+        if (mTail == mBuffer.length && mHead > 0) {
+            // compact unread data to make room
+            System.arraycopy(mBuffer, mHead, mBuffer, 0, mTail - mHead);
+            mTail -= mHead;
+            mHead = 0;
+        }
+
         final int length = mBuffer.length - mTail;
         if (length == 0) {
             throw new IOException("attempting to fill already-full buffer");
@@ -73,18 +90,17 @@ public class ProcFileReader implements Closeable {
      * all remaining bytes, will attempt to {@link #fillBuf()}.
      */
     private void consumeBuf(int count) throws IOException {
-        // TODO: consider moving to read pointer, but for now traceview says
-        // these copies aren't a bottleneck.
-        System.arraycopy(mBuffer, count, mBuffer, 0, mTail - count);
-        mTail -= count;
-        if (mTail == 0) {
+        mHead += count;
+        if (mHead == mTail) {
+            mHead = 0;
+            mTail = 0;
             fillBuf();
         }
     }
 
     /**
-     * Find buffer index of next token delimiter, usually space or newline.
-     * Fills buffer as needed.
+     * Find index of next token delimiter, usually space or newline, relative
+     * to the read pointer. Fills buffer as needed.
      *
      * @return Index of next delimeter, otherwise -1 if no tokens remain on
      *         current line.
@@ -97,8 +113,8 @@ public class ProcFileReader implements Closeable {
         int i = 0;
         do {
             // scan forward for token boundary
-            for (; i < mTail; i++) {
-                final byte b = mBuffer[i];
+            for (; i < mTail - mHead; i++) {
+                final byte b = mBuffer[mHead + i];
                 if (b == '\n') {
                     mLineFinished = true;
                     return i;
@@ -116,7 +132,7 @@ public class ProcFileReader implements Closeable {
      * Check if stream has more data to be parsed.
      */
     public boolean hasMoreData() {
-        return mTail > 0;
+        return mTail > mHead;
     }
 
     /**
@@ -132,8 +148,8 @@ public class ProcFileReader implements Closeable {
         int i = 0;
         do {
             // scan forward for line boundary and consume
-            for (; i < mTail; i++) {
-                if (mBuffer[i] == '\n') {
+            for (; i < mTail - mHead; i++) {
+                if (mBuffer[mHead + i] == '\n') {
                     consumeBuf(i + 1);
                     return;
                 }
@@ -163,7 +179,7 @@ public class ProcFileReader implements Closeable {
         if (tokenIndex == -1) {
             throw new ProtocolException("Missing required long");
         } else {
-            return parseAndConsumeLong(tokenIndex);
+            return parseAndConsumeLong(tokenIndex, tokenIndex);
         }
     }
 
@@ -176,23 +192,27 @@ public class ProcFileReader implements Closeable {
         if (tokenIndex == -1) {
             return def;
         } else {
-            return parseAndConsumeLong(tokenIndex);
+            return parseAndConsumeLong(tokenIndex, tokenIndex);
         }
     }
 
     private String parseAndConsumeString(int tokenIndex) throws IOException {
-        final String s = new String(mBuffer, 0, tokenIndex, StandardCharsets.US_ASCII);
+        final String s = new String(mBuffer, mHead, tokenIndex, StandardCharsets.US_ASCII);
         consumeBuf(tokenIndex + 1);
         return s;
     }
 
-    private long parseAndConsumeLong(int tokenIndex) throws IOException {
-        final boolean negative = mBuffer[0] == '-';
+    /**
+     * Parse the digits before {@code end} as a {@code long}, then consume the
+     * whole token ending at {@code tokenIndex}.
+     */
+    private long parseAndConsumeLong(int end, int tokenIndex) throws IOException {
+        final boolean negative = mBuffer[mHead] == '-';
 
         // TODO: refactor into something like IntegralToString
         long result = 0;
-        for (int i = negative ? 1 : 0; i < tokenIndex; i++) {
-            final int digit = mBuffer[i] - '0';
+        for (int i = negative ? 1 : 0; i < end; i++) {
+            final int digit = mBuffer[mHead + i] - '0';
             if (digit < 0 || digit > 9) {
                 throw invalidLong(tokenIndex);
             }
@@ -211,15 +231,33 @@ public class ProcFileReader implements Closeable {
     }
 
     private NumberFormatException invalidLong(int tokenIndex) {
-        return new NumberFormatException(
-                "invalid long: " + new String(mBuffer, 0, tokenIndex, StandardCharsets.US_ASCII));
+        return new NumberFormatException("invalid long: "
+                + new String(mBuffer, mHead, tokenIndex, StandardCharsets.US_ASCII));
     }
 
     /**
      * Parse and return next token as base-10 encoded {@code int}.
      */
     public int nextInt() throws IOException {
-        final long value = nextLong();
+        return toInt(nextLong());
+    }
+
+    /**
+     * Parse and return next token as base-10 encoded {@code int}, ignoring a
+     * single trailing {@code suffix} character, such as the {@code ':'} after
+     * a key. Avoids allocating a {@link String} for such tokens.
+     */
+    public int nextInt(char suffix) throws IOException {
+        final int tokenIndex = nextTokenIndex();
+        if (tokenIndex == -1) {
+            throw new ProtocolException("Missing required int");
+        }
+        final int end = tokenIndex > 0 && mBuffer[mHead + tokenIndex - 1] == suffix
+                ? tokenIndex - 1 : tokenIndex;
+        return toInt(parseAndConsumeLong(end, tokenIndex));
+    }
+
+    private static int toInt(long value) {
         if (value > Integer.MAX_VALUE || value < Integer.MIN_VALUE) {
             throw new NumberFormatException("parsed value larger than integer");
         }
@@ -149,4 +149,56 @@ public class SQLiteCursorTest extends AndroidTestCase {
         }
         c.close();
     }
+
+    @LargeTest
+    public void testFillWindowSequentialForward() {
+        final String testTable = "testSeq";
+        mDatabase.execSQL("CREATE TABLE " + testTable + " (col1 int, desc text not null);");
+
+        // rows big enough that the result set spans several windows
+        StringBuilder buff = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            buff.append(i % 10);
+        }
+        ContentValues values = new ContentValues();
+        values.put("desc", buff.toString());
+
+        final int N = 5000;
+        mDatabase.beginTransaction();
+        for (int j = 0; j < N; j++) {
+            values.put("col1", j);
+            mDatabase.insert(testTable, null, values);
+        }
+        mDatabase.setTransactionSuccessful();
+        mDatabase.endTransaction();
+
+        SQLiteCursor c = (SQLiteCursor) mDatabase.rawQuery(
+                "select col1, desc from " + testTable + " order by col1", null);
+        int refills = 0;
+        int windowStart = -1;
+        while (c.moveToNext()) {
+            assertEquals(c.getPosition(), c.getInt(0));
+            if (c.getWindow().getStartPosition() != windowStart) {
+                windowStart = c.getWindow().getStartPosition();
+                // moving forward one row at a time fills from the requested row
+                assertEquals(c.getPosition(), windowStart);
+                refills++;
+            }
+        }
+        assertTrue(refills > 1);
+
+        // stepping back across the window start still works
+        assertTrue(c.moveToPosition(windowStart));
+        assertTrue(c.moveToPrevious());
+        assertEquals(windowStart - 1, c.getInt(0));
+        assertTrue(c.getWindow().getStartPosition() < windowStart - 1);
+
+        // forward-only fills start at the requested row even when seeking
+        c.setFillWindowForwardOnly(true);
+        assertTrue(c.getWindow().getStartPosition() > 1);
+        assertTrue(c.moveToPosition(1));
+        assertEquals(1, c.getInt(0));
+        assertEquals(1, c.getWindow().getStartPosition());
+        c.close();
+    }
 }
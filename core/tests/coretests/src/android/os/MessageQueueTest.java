@@ -63,6 +63,61 @@ public class MessageQueueTest extends TestCase {
         }
     }
 
+    @MediumTest
+    public void testBatchMessageOrder() throws Exception {
+        TestHandlerThread tester = new BaseTestHandler() {
+            public void go() {
+                super.go();
+                long now = SystemClock.uptimeMillis() + 200;
+                mLastMessage = 7;
+                mCount = 0;
+                // Messages already queued before, at and after the time of the batch.
+                mHandler.sendMessageAtTime(mHandler.obtainMessage(6), now + 2);
+                mHandler.sendMessageAtTime(mHandler.obtainMessage(0), now);
+                mHandler.sendMessageAtTime(mHandler.obtainMessage(1), now + 1);
+                mHandler.sendMessagesAtTime(new Message[] {
+                        mHandler.obtainMessage(2),
+                        mHandler.obtainMessage(3),
+                        mHandler.obtainMessage(4)
+                }, now + 1);
+                mHandler.sendMessageAtTime(mHandler.obtainMessage(5), now + 1);
+                mHandler.sendMessageAtTime(mHandler.obtainMessage(7), now + 2);
+            }
+        };
+
+        tester.doTest(1000);
+    }
+
+    @MediumTest
+    public void testBatchDuplicateMessage() throws Exception {
+        TestHandlerThread tester = new BaseTestHandler() {
+            public void go() {
+                super.go();
+                long now = SystemClock.uptimeMillis() + 200;
+                mLastMessage = 2;
+                mCount = 0;
+                Message first = mHandler.obtainMessage(1);
+                Message duplicate = mHandler.obtainMessage(2);
+                mHandler.sendMessageAtTime(mHandler.obtainMessage(0), now);
+                try {
+                    mHandler.sendMessagesAtTime(
+                            new Message[] { first, duplicate, duplicate }, now + 1);
+                    failure(new RuntimeException("Duplicate message was enqueued"));
+                    return;
+                } catch (IllegalStateException expected) {
+                }
+                // The rejected batch must not have been queued or left claimed.
+                if (first.isInUse() || duplicate.isInUse()) {
+                    failure(new RuntimeException("Rejected batch left messages in use"));
+                    return;
+                }
+                mHandler.sendMessagesAtTime(new Message[] { first, duplicate }, now + 1);
+            }
+        };
+
+        tester.doTest(1000);
+    }
+
     @MediumTest
     public void testMessageOrder() throws Exception {
         TestHandlerThread tester = new BaseTestHandler() {
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.provider;
+
+import static org.junit.Assert.assertEquals;
+
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.UserHandle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+import android.util.ArrayMap;
+import android.util.MemoryIntArray;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+
+/**
+ * Tests that {@link Settings.NameValueCache} only drops the cached values of the generation
+ * buckets that changed.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class NameValueCacheTest {
+    private static final String AUTHORITY = "android.provider.NameValueCacheTest";
+    private static final Uri URI = Uri.parse("content://" + AUTHORITY + "/test");
+    private static final String GET_COMMAND = "GET_test";
+    private static final String PUT_COMMAND = "PUT_test";
+    private static final int BUCKET_COUNT = 4;
+
+    private MemoryIntArray mGenerations;
+    private FakeSettingsProvider mProvider;
+    private MockContentResolver mResolver;
+    private Settings.NameValueCache mCache;
+
+    private String mName;
+    private String mOtherName;
+
+    @Before
+    public void setUp() throws Exception {
+        mGenerations = new MemoryIntArray(BUCKET_COUNT);
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mGenerations.set(i, 1);
+        }
+        mProvider = new FakeSettingsProvider();
+        mResolver = new MockContentResolver(InstrumentationRegistry.getContext());
+        mResolver.addProvider(AUTHORITY, mProvider);
+        mCache = new Settings.NameValueCache(URI, GET_COMMAND, PUT_COMMAND,
+                new Settings.ContentProviderHolder(URI));
+
+        mName = "setting0";
+        final int bucket = Settings.getGenerationBucket(mName, BUCKET_COUNT);
+        for (int i = 1; mOtherName == null; i++) {
+            final String name = "setting" + i;
+            if (Settings.getGenerationBucket(name, BUCKET_COUNT) != bucket) {
+                mOtherName = name;
+            }
+        }
+        mProvider.mValues.put(mName, "value");
+        mProvider.mValues.put(mOtherName, "other_value");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mGenerations.close();
+    }
+
+    @Test
+    public void testValueCachedWhileGenerationUnchanged() {
+        assertEquals("value", get(mName));
+        assertEquals("value", get(mName));
+        assertEquals(1, mProvider.getFetchCount(mName));
+    }
+
+    @Test
+    public void testChangeInOtherBucketKeepsCachedValue() throws Exception {
+        get(mName);
+        get(mOtherName);
+
+        incrementGeneration(mOtherName);
+        assertEquals("value", get(mName));
+        assertEquals(1, mProvider.getFetchCount(mName));
+
+        mProvider.mValues.put(mOtherName, "new_value");
+        assertEquals("new_value", get(mOtherName));
+        assertEquals(2, mProvider.getFetchCount(mOtherName));
+    }
+
+    @Test
+    public void testChangeInBucketRefetches() throws Exception {
+        get(mName);
+
+        mProvider.mValues.put(mName, "new_value");
+        incrementGeneration(mName);
+        assertEquals("new_value", get(mName));
+        assertEquals("new_value", get(mName));
+        assertEquals(2, mProvider.getFetchCount(mName));
+    }
+
+    @Test
+    public void testFirstLookupInUntrackedBucketRefetches() {
+        // The tracker only knows the generation of the bucket of the first lookup, so the
+        // first lookup in another bucket must go to the provider to learn its generation.
+        get(mName);
+
+        assertEquals("other_value", get(mOtherName));
+        assertEquals("other_value", get(mOtherName));
+        assertEquals(1, mProvider.getFetchCount(mOtherName));
+        assertEquals(1, mProvider.getFetchCount(mName));
+    }
+
+    @Test
+    public void testChangeInAllBucketsRefetchesAll() throws Exception {
+        get(mName);
+        get(mOtherName);
+
+        // This is how the provider invalidates a whole table.
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mGenerations.set(i, mGenerations.get(i) + 1);
+        }
+        get(mName);
+        get(mOtherName);
+        assertEquals(2, mProvider.getFetchCount(mName));
+        assertEquals(2, mProvider.getFetchCount(mOtherName));
+    }
+
+    private String get(String name) {
+        return mCache.getStringForUser(mResolver, name, UserHandle.myUserId());
+    }
+
+    private void incrementGeneration(String name) throws IOException {
+        final int bucket = Settings.getGenerationBucket(name, BUCKET_COUNT);
+        mGenerations.set(bucket, mGenerations.get(bucket) + 1);
+    }
+
+    private class FakeSettingsProvider extends MockContentProvider {
+        final ArrayMap<String, String> mValues = new ArrayMap<>();
+        private final ArrayMap<String, Integer> mFetchCounts = new ArrayMap<>();
+
+        int getFetchCount(String name) {
+            final Integer count = mFetchCounts.get(name);
+            return count != null ? count : 0;
+        }
+
+        @Override
+        public Bundle call(String method, String request, Bundle args) {
+            if (!GET_COMMAND.equals(method)) {
+                return null;
+            }
+            mFetchCounts.put(request, getFetchCount(request) + 1);
+            final Bundle result = new Bundle();
+            result.putString(Settings.NameValueTable.VALUE, mValues.get(request));
+            if (args != null && args.containsKey(Settings.CALL_METHOD_TRACK_GENERATION_KEY)) {
+                try {
+                    result.putParcelable(Settings.CALL_METHOD_TRACK_GENERATION_KEY,
+                            mGenerations);
+                    result.putInt(Settings.CALL_METHOD_GENERATION_INDEX_KEY, 0);
+                    result.putInt(Settings.CALL_METHOD_GENERATION_BUCKETS_KEY, BUCKET_COUNT);
+                    result.putInt(Settings.CALL_METHOD_GENERATION_KEY, mGenerations.get(
+                            Settings.getGenerationBucket(request, BUCKET_COUNT)));
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -17,6 +17,7 @@ import org.junit.runners.Suite;
         BatteryStatsTimeBaseTest.class,
         BatteryStatsTimerTest.class,
         BatteryStatsUidTest.class,
+        BatteryStatsWriteTest.class,
     })
 public class BatteryStatsTests {
 }
@@ -66,6 +66,49 @@ public class BatteryStatsTimeBaseTest extends TestCase {
         }
     }
 
+    /**
+     * Observer that keeps the index assigned by its TimeBase, like the real observers do.
+     */
+    public static class TestObserver implements BatteryStatsImpl.TimeBaseObs {
+        private int mTimeBaseIndex = -1;
+
+        @Override
+        public void onTimeStarted(long elapsedRealtime, long baseUptime, long baseRealtime) {
+        }
+
+        @Override
+        public void onTimeStopped(long elapsedRealtime, long baseUptime, long baseRealtime) {
+        }
+
+        @Override
+        public int getTimeBaseIndex() {
+            return mTimeBaseIndex;
+        }
+
+        @Override
+        public void setTimeBaseIndex(int index) {
+            mTimeBaseIndex = index;
+        }
+    }
+
+    private static BatteryStatsImpl.TimeBaseObs newObserver() {
+        return Mockito.spy(new TestObserver());
+    }
+
+    private static void verifyNoOtherCallbacks(BatteryStatsImpl.TimeBaseObs observer) {
+        Mockito.verify(observer, Mockito.times(1)).onTimeStarted(
+                Mockito.anyLong(), Mockito.anyLong(), Mockito.anyLong());
+        Mockito.verify(observer, Mockito.never()).onTimeStopped(
+                Mockito.anyLong(), Mockito.anyLong(), Mockito.anyLong());
+    }
+
+    private static void verifyNoCallbacks(BatteryStatsImpl.TimeBaseObs observer) {
+        Mockito.verify(observer, Mockito.never()).onTimeStarted(
+                Mockito.anyLong(), Mockito.anyLong(), Mockito.anyLong());
+        Mockito.verify(observer, Mockito.never()).onTimeStopped(
+                Mockito.anyLong(), Mockito.anyLong(), Mockito.anyLong());
+    }
+
     /**
      * Test the observers and the setRunning call.
      */
@@ -81,9 +124,9 @@ public class BatteryStatsTimeBaseTest extends TestCase {
         Assert.assertEquals(10000, tb.getRealtimeStart());
 
         // Create some observers
-        BatteryStatsImpl.TimeBaseObs observer1 = Mockito.mock(BatteryStatsImpl.TimeBaseObs.class);
-        BatteryStatsImpl.TimeBaseObs observer2 = Mockito.mock(BatteryStatsImpl.TimeBaseObs.class);
-        BatteryStatsImpl.TimeBaseObs observer3 = Mockito.mock(BatteryStatsImpl.TimeBaseObs.class);
+        BatteryStatsImpl.TimeBaseObs observer1 = newObserver();
+        BatteryStatsImpl.TimeBaseObs observer2 = newObserver();
+        BatteryStatsImpl.TimeBaseObs observer3 = newObserver();
 
         // Add them
         tb.add(observer1);
@@ -118,12 +161,15 @@ public class BatteryStatsTimeBaseTest extends TestCase {
         Assert.assertEquals(100, tb.getUptime(250));
         Assert.assertEquals(1000, tb.getRealtime(14000));
 
+        // The observers also see their index being maintained, so check the callbacks
+        // explicitly instead of verifying that there were no other interactions.
         Mockito.verify(observer1).onTimeStarted(14000, 100, 1000);
         Mockito.verify(observer1, Mockito.never()).onTimeStopped(-1, -1, -1);
-        Mockito.verifyNoMoreInteractions(observer1);
+        verifyNoOtherCallbacks(observer1);
         Mockito.verify(observer2).onTimeStarted(14000, 100, 1000);
         Mockito.verify(observer2, Mockito.never()).onTimeStopped(-1, -1, -1);
-        Mockito.verifyNoMoreInteractions(observer2);
+        verifyNoOtherCallbacks(observer2);
+        verifyNoCallbacks(observer3);
 
         Mockito.reset(observer1);
         Mockito.reset(observer2);
@@ -308,6 +354,48 @@ public class BatteryStatsTimeBaseTest extends TestCase {
         Assert.assertEquals(0, tb.computeUptime(666, 6000));
     }
 
+    /**
+     * Test that removing an observer from the middle keeps the others attached.
+     */
+    @SmallTest
+    public void testRemoveMiddleObserver() throws Exception {
+        TestTimeBase tb = new TestTimeBase();
+
+        BatteryStatsImpl.TimeBaseObs observer1 = newObserver();
+        BatteryStatsImpl.TimeBaseObs observer2 = newObserver();
+        BatteryStatsImpl.TimeBaseObs observer3 = newObserver();
+
+        tb.add(observer1);
+        tb.add(observer2);
+        tb.add(observer3);
+
+        tb.remove(observer1);
+        Assert.assertFalse(tb.hasObserver(observer1));
+        Assert.assertTrue(tb.hasObserver(observer2));
+        Assert.assertTrue(tb.hasObserver(observer3));
+
+        // The observer moved into the freed slot must still be removable.
+        tb.remove(observer3);
+        Assert.assertFalse(tb.hasObserver(observer3));
+        Assert.assertTrue(tb.hasObserver(observer2));
+
+        Assert.assertEquals(-1, observer1.getTimeBaseIndex());
+        Assert.assertEquals(-1, observer3.getTimeBaseIndex());
+        Assert.assertEquals(0, observer2.getTimeBaseIndex());
+
+        // A detached observer can be added again.
+        tb.add(observer1);
+        Assert.assertTrue(tb.hasObserver(observer1));
+        tb.remove(observer1);
+
+        tb.setRunning(true, 100, 1000);
+        Mockito.verify(observer2).onTimeStarted(1000, 0, 0);
+        Mockito.verify(observer1, Mockito.never()).onTimeStarted(
+                Mockito.anyLong(), Mockito.anyLong(), Mockito.anyLong());
+        Mockito.verify(observer3, Mockito.never()).onTimeStarted(
+                Mockito.anyLong(), Mockito.anyLong(), Mockito.anyLong());
+    }
+
     /**
      * Test dump
      */
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.os;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Tests that asynchronous BatteryStatsImpl writes share a single snapshot of the stats.
+ */
+public class BatteryStatsWriteTest extends TestCase {
+    private File mSystemDir;
+    private QueuedExecutor mExecutor;
+    private TestBatteryStatsImpl mStats;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSystemDir = new File(InstrumentationRegistry.getContext().getCacheDir(),
+                "BatteryStatsWriteTest");
+        deleteSystemDir();
+        mSystemDir.mkdirs();
+        mExecutor = new QueuedExecutor();
+        mStats = new TestBatteryStatsImpl(mSystemDir);
+        mStats.mAsyncWriteExecutor = mExecutor;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteSystemDir();
+        super.tearDown();
+    }
+
+    @SmallTest
+    public void testAsyncWritesShareOneSnapshot() throws Exception {
+        synchronized (mStats) {
+            mStats.writeAsyncLocked();
+            mStats.writeAsyncLocked();
+            mStats.writeAsyncLocked();
+        }
+        assertEquals(1, mExecutor.mTasks.size());
+        assertEquals(0, mStats.mSnapshotCount);
+
+        mExecutor.runAll();
+        assertEquals(1, mStats.mSnapshotCount);
+        assertTrue(getStatsFile().exists());
+    }
+
+    @SmallTest
+    public void testAsyncWriteAfterCompletedWriteIsScheduled() throws Exception {
+        synchronized (mStats) {
+            mStats.writeAsyncLocked();
+        }
+        mExecutor.runAll();
+
+        synchronized (mStats) {
+            mStats.writeAsyncLocked();
+        }
+        assertEquals(1, mExecutor.mTasks.size());
+        mExecutor.runAll();
+        assertEquals(2, mStats.mSnapshotCount);
+    }
+
+    @SmallTest
+    public void testSyncWriteCancelsPendingAsyncWrite() throws Exception {
+        synchronized (mStats) {
+            mStats.writeAsyncLocked();
+            mStats.writeSyncLocked();
+        }
+        assertEquals(1, mStats.mSnapshotCount);
+        assertTrue(getStatsFile().exists());
+
+        mExecutor.runAll();
+        assertEquals(1, mStats.mSnapshotCount);
+    }
+
+    private File getStatsFile() {
+        return new File(mSystemDir, "batterystats.bin");
+    }
+
+    private void deleteSystemDir() {
+        final File[] files = mSystemDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mSystemDir.delete();
+    }
+
+    private static class QueuedExecutor implements Executor {
+        final ArrayList<Runnable> mTasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable task) {
+            mTasks.add(task);
+        }
+
+        void runAll() {
+            while (!mTasks.isEmpty()) {
+                mTasks.remove(0).run();
+            }
+        }
+    }
+
+    private static class TestBatteryStatsImpl extends BatteryStatsImpl {
+        int mSnapshotCount;
+
+        TestBatteryStatsImpl(File systemDir) {
+            super(new MockClocks(), systemDir, new Handler(Looper.getMainLooper()), null, null);
+        }
+
+        @Override
+        void snapshotForWriteLocked() {
+            mSnapshotCount++;
+            super.snapshotForWriteLocked();
+        }
+    }
+}
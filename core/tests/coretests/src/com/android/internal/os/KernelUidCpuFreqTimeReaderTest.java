@@ -19,11 +19,14 @@ package com.android.internal.os;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.verifyZeroInteractions;
-import static org.mockito.Mockito.when;
 
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
 import android.support.test.filters.SmallTest;
 import android.support.test.runner.AndroidJUnit4;
 
+import com.android.internal.util.ProcFileReader;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -31,7 +34,11 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Test class for {@link KernelUidCpuFreqTimeReader}.
@@ -51,9 +58,22 @@ import java.io.BufferedReader;
 @SmallTest
 @RunWith(AndroidJUnit4.class)
 public class KernelUidCpuFreqTimeReaderTest {
-    @Mock private BufferedReader mBufferedReader;
     @Mock private KernelUidCpuFreqTimeReader.Callback mCallback;
 
+    // The reader reuses its delta array across uids, so hand the mock a copy to verify against.
+    private final KernelUidCpuFreqTimeReader.Callback mCopyingCallback =
+            new KernelUidCpuFreqTimeReader.Callback() {
+                @Override
+                public void onCpuFreqs(long[] cpuFreqs) {
+                    mCallback.onCpuFreqs(cpuFreqs);
+                }
+
+                @Override
+                public void onUidCpuFreqTime(int uid, long[] cpuFreqTimeMs) {
+                    mCallback.onUidCpuFreqTime(uid, cpuFreqTimeMs.clone());
+                }
+            };
+
     private KernelUidCpuFreqTimeReader mKernelUidCpuFreqTimeReader;
 
     @Before
@@ -72,9 +92,7 @@ public class KernelUidCpuFreqTimeReaderTest {
                 times[i][j] = uids[i] * freqs[j] * 10;
             }
         }
-        when(mBufferedReader.readLine())
-                .thenReturn(getFreqsLine(freqs), getUidTimesLines(uids, times));
-        mKernelUidCpuFreqTimeReader.readDelta(mBufferedReader, mCallback);
+        mKernelUidCpuFreqTimeReader.readDelta(buildReader(freqs, uids, times), mCopyingCallback);
         verify(mCallback).onCpuFreqs(freqs);
         for (int i = 0; i < uids.length; ++i) {
             verify(mCallback).onUidCpuFreqTime(uids[i], times[i]);
@@ -82,16 +100,15 @@ public class KernelUidCpuFreqTimeReaderTest {
         verifyNoMoreInteractions(mCallback);
 
         // Verify that a second call will only return deltas.
-        Mockito.reset(mCallback, mBufferedReader);
+        Mockito.reset(mCallback);
         final long[][] newTimes1 = new long[uids.length][freqs.length];
         for (int i = 0; i < uids.length; ++i) {
             for (int j = 0; j < freqs.length; ++j) {
                 newTimes1[i][j] = (times[i][j] + uids[i] + freqs[j]) * 10;
             }
         }
-        when(mBufferedReader.readLine())
-                .thenReturn(getFreqsLine(freqs), getUidTimesLines(uids, newTimes1));
-        mKernelUidCpuFreqTimeReader.readDelta(mBufferedReader, mCallback);
+        mKernelUidCpuFreqTimeReader.readDelta(buildReader(freqs, uids, newTimes1),
+                mCopyingCallback);
         verify(mCallback).onCpuFreqs(freqs);
         for (int i = 0; i < uids.length; ++i) {
             verify(mCallback).onUidCpuFreqTime(uids[i], subtract(newTimes1[i], times[i]));
@@ -99,30 +116,27 @@ public class KernelUidCpuFreqTimeReaderTest {
         verifyNoMoreInteractions(mCallback);
 
         // Verify that calling with a null callback doesn't result in any crashes
-        Mockito.reset(mCallback, mBufferedReader);
+        Mockito.reset(mCallback);
         final long[][] newTimes2 = new long[uids.length][freqs.length];
         for (int i = 0; i < uids.length; ++i) {
             for (int j = 0; j < freqs.length; ++j) {
                 newTimes2[i][j] = (newTimes1[i][j] + uids[i] * freqs[j]) * 10;
             }
         }
-        when(mBufferedReader.readLine())
-                .thenReturn(getFreqsLine(freqs), getUidTimesLines(uids, newTimes2));
-        mKernelUidCpuFreqTimeReader.readDelta(mBufferedReader, null);
+        mKernelUidCpuFreqTimeReader.readDelta(buildReader(freqs, uids, newTimes2), null);
         verifyZeroInteractions(mCallback);
 
         // Verify that the readDelta call will only return deltas when
         // the previous call had null callback.
-        Mockito.reset(mCallback, mBufferedReader);
+        Mockito.reset(mCallback);
         final long[][] newTimes3 = new long[uids.length][freqs.length];
         for (int i = 0; i < uids.length; ++i) {
             for (int j = 0; j < freqs.length; ++j) {
                 newTimes3[i][j] = (newTimes2[i][j] * (uids[i] + freqs[j])) * 10;
             }
         }
-        when(mBufferedReader.readLine())
-                .thenReturn(getFreqsLine(freqs), getUidTimesLines(uids, newTimes3));
-        mKernelUidCpuFreqTimeReader.readDelta(mBufferedReader, mCallback);
+        mKernelUidCpuFreqTimeReader.readDelta(buildReader(freqs, uids, newTimes3),
+                mCopyingCallback);
         verify(mCallback).onCpuFreqs(freqs);
         for (int i = 0; i < uids.length; ++i) {
             verify(mCallback).onUidCpuFreqTime(uids[i], subtract(newTimes3[i], newTimes2[i]));
@@ -138,6 +152,75 @@ public class KernelUidCpuFreqTimeReaderTest {
         return val;
     }
 
+    @Test
+    public void testReadDelta_fixtureFile() throws Exception {
+        final long[] freqs = {300000, 576000, 1036800};
+        final int[] uids = {0, 1000, 10023};
+        final long[][] times = {{100, 0, 20}, {3000, 400, 50}, {0, 60, 7000}};
+        final File procFile = writeFixture(freqs, uids, times);
+        try {
+            final KernelUidCpuFreqTimeReader reader =
+                    new KernelUidCpuFreqTimeReader(procFile.getAbsolutePath());
+            reader.readDelta(mCopyingCallback);
+            verify(mCallback).onCpuFreqs(freqs);
+            for (int i = 0; i < uids.length; ++i) {
+                verify(mCallback).onUidCpuFreqTime(uids[i], times[i]);
+            }
+            verifyNoMoreInteractions(mCallback);
+        } finally {
+            procFile.delete();
+        }
+    }
+
+    @Test
+    public void testReadDelta_mismatchedReadings() throws Exception {
+        final long[] freqs = {1, 12, 123};
+        final int[] uids = {1, 22};
+        final long[][] times = {{10, 20, 30}, {40, 50, 60}};
+        mKernelUidCpuFreqTimeReader.readDelta(buildReader(freqs, uids, times), mCopyingCallback);
+        Mockito.reset(mCallback);
+
+        // uid 1 reports an extra reading and uid 22 a missing one; both lines are skipped
+        // without losing track of the following line.
+        final String lines = getFreqsLine(freqs) + "\n"
+                + "1: 2 3 4 5\n"
+                + "22: 6 7\n"
+                + "333: 8 9 10\n";
+        mKernelUidCpuFreqTimeReader.readDelta(buildReader(lines), mCopyingCallback);
+        verify(mCallback).onCpuFreqs(freqs);
+        verify(mCallback).onUidCpuFreqTime(333, new long[] {80, 90, 100});
+        verifyNoMoreInteractions(mCallback);
+    }
+
+    private File writeFixture(long[] freqs, int[] uids, long[][] times) throws IOException {
+        final Context context = InstrumentationRegistry.getContext();
+        final File file = File.createTempFile("uid_time_in_state", null, context.getCacheDir());
+        try (FileWriter writer = new FileWriter(file)) {
+            writer.write(getFileContents(freqs, uids, times));
+        }
+        return file;
+    }
+
+    private ProcFileReader buildReader(long[] freqs, int[] uids, long[][] times)
+            throws IOException {
+        return buildReader(getFileContents(freqs, uids, times));
+    }
+
+    private ProcFileReader buildReader(String contents) throws IOException {
+        return new ProcFileReader(
+                new ByteArrayInputStream(contents.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private String getFileContents(long[] freqs, int[] uids, long[][] times) {
+        final StringBuilder sb = new StringBuilder(getFreqsLine(freqs)).append('\n');
+        for (String line : getUidTimesLines(uids, times)) {
+            if (line != null) {
+                sb.append(line).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
     private String getFreqsLine(long[] freqs) {
         final StringBuilder sb = new StringBuilder();
         sb.append("uid:");
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.os;
+
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Test class for {@link KernelUidCpuTimeReader}.
+ *
+ * To run the tests, use
+ *
+ * runtest -c com.android.internal.os.KernelUidCpuTimeReaderTest frameworks-core
+ *
+ * or the following steps:
+ *
+ * Build: m FrameworksCoreTests
+ * Install: adb install -r \
+ *     ${ANDROID_PRODUCT_OUT}/data/app/FrameworksCoreTests/FrameworksCoreTests.apk
+ * Run: adb shell am instrument -e class com.android.internal.os.KernelUidCpuTimeReaderTest -w \
+ *     com.android.frameworks.coretests/android.support.test.runner.AndroidJUnitRunner
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class KernelUidCpuTimeReaderTest {
+    @Mock private KernelUidCpuTimeReader.Callback mCallback;
+
+    private File mProcFile;
+    private KernelUidCpuTimeReader mKernelUidCpuTimeReader;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        mProcFile = File.createTempFile("show_uid_stat", null,
+                InstrumentationRegistry.getContext().getCacheDir());
+        mKernelUidCpuTimeReader = new KernelUidCpuTimeReader(mProcFile.getAbsolutePath());
+    }
+
+    @After
+    public void tearDown() {
+        mProcFile.delete();
+    }
+
+    @Test
+    public void testReadDelta() throws Exception {
+        final int[] uids = {0, 1000, 10023};
+        final long[][] times = {{100, 200}, {3000, 4000}, {50000, 60000}};
+
+        // The first read only establishes a baseline.
+        writeFixture(uids, times);
+        mKernelUidCpuTimeReader.readDelta(mCallback);
+        verifyZeroInteractions(mCallback);
+
+        final long[][] newTimes = {{100, 250}, {3300, 4400}, {50000, 60000}};
+        writeFixture(uids, newTimes);
+        mKernelUidCpuTimeReader.readDelta(mCallback);
+        verify(mCallback).onUidCpuTime(0, 0, 50);
+        verify(mCallback).onUidCpuTime(1000, 300, 400);
+        // uid 10023 did not change and must not be reported.
+        verifyNoMoreInteractions(mCallback);
+    }
+
+    @Test
+    public void testReadDelta_newAndRemovedUid() throws Exception {
+        writeFixture(new int[] {1000}, new long[][] {{10, 20}});
+        mKernelUidCpuTimeReader.readDelta(mCallback);
+
+        Mockito.reset(mCallback);
+        writeFixture(new int[] {1000, 10001}, new long[][] {{15, 20}, {7, 8}});
+        mKernelUidCpuTimeReader.readDelta(mCallback);
+        verify(mCallback).onUidCpuTime(1000, 5, 0);
+        verify(mCallback).onUidCpuTime(10001, 7, 8);
+        verifyNoMoreInteractions(mCallback);
+
+        // After removal, uid 1000 is reported from zero again.
+        Mockito.reset(mCallback);
+        mKernelUidCpuTimeReader.removeUid(1000);
+        writeFixture(new int[] {1000, 10001}, new long[][] {{15, 20}, {7, 8}});
+        mKernelUidCpuTimeReader.readDelta(mCallback);
+        verify(mCallback).onUidCpuTime(1000, 15, 20);
+        verifyNoMoreInteractions(mCallback);
+    }
+
+    @Test
+    public void testReadDelta_decreasingTimes() throws Exception {
+        writeFixture(new int[] {1000}, new long[][] {{100, 200}});
+        mKernelUidCpuTimeReader.readDelta(mCallback);
+
+        // Malformed data going backwards is dropped rather than reported as a negative delta.
+        writeFixture(new int[] {1000}, new long[][] {{50, 300}});
+        mKernelUidCpuTimeReader.readDelta(mCallback);
+        verifyZeroInteractions(mCallback);
+    }
+
+    private void writeFixture(int[] uids, long[][] times) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < uids.length; ++i) {
+            // The last column is the power reading, which is ignored.
+            sb.append(uids[i]).append(": ").append(times[i][0]).append(' ')
+                    .append(times[i][1]).append(" 0\n");
+        }
+        try (FileWriter writer = new FileWriter(mProcFile)) {
+            writer.write(sb.toString());
+        }
+    }
+}
@@ -166,6 +166,43 @@ public class ProcFileReaderTest extends AndroidTestCase {
         assertEquals(-1L, reader.nextOptionalLong(-1L));
     }
 
+    public void testIntWithSuffix() throws Exception {
+        final ProcFileReader reader = buildReader("0: 12 34\n10023: 5\n7 8\n", 8);
+
+        assertEquals(0, reader.nextInt(':'));
+        assertEquals(12, reader.nextInt());
+        assertEquals(34, reader.nextInt());
+        reader.finishLine();
+
+        assertEquals(10023, reader.nextInt(':'));
+        assertEquals(5, reader.nextInt());
+        reader.finishLine();
+
+        // suffix is optional
+        assertEquals(7, reader.nextInt(':'));
+        assertEquals(8, reader.nextInt(':'));
+        reader.finishLine();
+        assertFalse(reader.hasMoreData());
+    }
+
+    public void testReusedBuffer() throws Exception {
+        final byte[] buffer = new byte[4];
+
+        ProcFileReader reader = new ProcFileReader(new ByteArrayInputStream(
+                "12 345\n".getBytes(StandardCharsets.US_ASCII)), buffer);
+        assertEquals(12, reader.nextInt());
+        assertEquals(345, reader.nextInt());
+        reader.finishLine();
+        assertFalse(reader.hasMoreData());
+
+        reader = new ProcFileReader(new ByteArrayInputStream(
+                "6 78\n".getBytes(StandardCharsets.US_ASCII)), buffer);
+        assertEquals(6, reader.nextInt());
+        assertEquals(78, reader.nextInt());
+        reader.finishLine();
+        assertFalse(reader.hasMoreData());
+    }
+
     private static ProcFileReader buildReader(String string) throws IOException {
         return buildReader(string, 2048);
     }
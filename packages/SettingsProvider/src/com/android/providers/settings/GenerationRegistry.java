@@ -29,13 +29,18 @@ import java.io.IOException;
 /**
  * This class tracks changes for global/secure/system tables on a
  * per user basis and updates a shared memory region which client
- * processes can read to determine if their local caches are stale,
+ * processes can read to determine if their local caches are stale.
+ * Each table owns a block of consecutive entries, one per bucket of
+ * setting names, so that a change only invalidates the cached values
+ * whose names fall into the same bucket.
  */
 final class GenerationRegistry {
     private static final String LOG_TAG = "GenerationRegistry";
 
     private static final boolean DEBUG = false;
 
+    private static final int MAX_BUCKET_COUNT = 16;
+
     private final Object mLock;
 
     @GuardedBy("mLock")
@@ -44,19 +49,33 @@ final class GenerationRegistry {
     @GuardedBy("mLock")
     private MemoryIntArray mBackingStore;
 
+    @GuardedBy("mLock")
+    private int mBucketCount = 1;
+
     public GenerationRegistry(Object lock) {
         mLock = lock;
     }
 
-    public void incrementGeneration(int key) {
+    /**
+     * Increments the generation of the bucket of the setting {@code name} in the table
+     * identified by {@code key}, or of all buckets of the table if {@code name} is null.
+     */
+    public void incrementGeneration(int key, String name) {
         synchronized (mLock) {
             MemoryIntArray backingStore = getBackingStoreLocked();
             if (backingStore != null) {
                 try {
-                    final int index = getKeyIndexLocked(key, mKeyToIndexMap, backingStore);
+                    final int index = getKeyIndexLocked(key, mKeyToIndexMap, backingStore,
+                            mBucketCount);
                     if (index >= 0) {
-                        final int generation = backingStore.get(index) + 1;
-                        backingStore.set(index, generation);
+                        if (name != null) {
+                            incrementSlotLocked(backingStore,
+                                    index + Settings.getGenerationBucket(name, mBucketCount));
+                        } else {
+                            for (int i = 0; i < mBucketCount; i++) {
+                                incrementSlotLocked(backingStore, index + i);
+                            }
+                        }
                     }
                 } catch (IOException e) {
                     Slog.e(LOG_TAG, "Error updating generation id", e);
@@ -66,21 +85,22 @@ final class GenerationRegistry {
         }
     }
 
-    public void addGenerationData(Bundle bundle, int key) {
+    public void addGenerationData(Bundle bundle, int key, String name) {
         synchronized (mLock) {
             MemoryIntArray backingStore = getBackingStoreLocked();
             try {
                 if (backingStore != null) {
-                    final int index = getKeyIndexLocked(key, mKeyToIndexMap, backingStore);
+                    final int index = getKeyIndexLocked(key, mKeyToIndexMap, backingStore,
+                            mBucketCount);
                     if (index >= 0) {
                         bundle.putParcelable(Settings.CALL_METHOD_TRACK_GENERATION_KEY,
                                 backingStore);
                         bundle.putInt(Settings.CALL_METHOD_GENERATION_INDEX_KEY, index);
-                        bundle.putInt(Settings.CALL_METHOD_GENERATION_KEY,
-                                backingStore.get(index));
+                        bundle.putInt(Settings.CALL_METHOD_GENERATION_BUCKETS_KEY, mBucketCount);
+                        bundle.putInt(Settings.CALL_METHOD_GENERATION_KEY, backingStore.get(
+                                index + Settings.getGenerationBucket(name, mBucketCount)));
                         if (DEBUG) {
-                            Slog.i(LOG_TAG, "Exported index:" + index + " for key:"
-                                    + SettingsProvider.keyToString(key));
+                            Slog.i(LOG_TAG, "Exported index:" + index + " for key:" + key);
                         }
                     }
                 }
@@ -91,20 +111,18 @@ final class GenerationRegistry {
         }
     }
 
-    public void onUserRemoved(int userId) {
+    /**
+     * Frees the entries of the table identified by {@code key}, e.g. when its user has been
+     * removed.
+     */
+    public void onTableRemoved(int key) {
         synchronized (mLock) {
             MemoryIntArray backingStore = getBackingStoreLocked();
             if (backingStore != null && mKeyToIndexMap.size() > 0) {
                 try {
-                    final int secureKey = SettingsProvider.makeKey(
-                            SettingsProvider.SETTINGS_TYPE_SECURE, userId);
-                    resetSlotForKeyLocked(secureKey, mKeyToIndexMap, backingStore);
-
-                    final int systemKey = SettingsProvider.makeKey(
-                            SettingsProvider.SETTINGS_TYPE_SYSTEM, userId);
-                    resetSlotForKeyLocked(systemKey, mKeyToIndexMap, backingStore);
+                    resetSlotForKeyLocked(key, mKeyToIndexMap, backingStore, mBucketCount);
                 } catch (IOException e) {
-                    Slog.e(LOG_TAG, "Error cleaning up for user", e);
+                    Slog.e(LOG_TAG, "Error cleaning up for table", e);
                     destroyBackingStore();
                 }
             }
@@ -117,7 +135,11 @@ final class GenerationRegistry {
             // managed profile (managed profile is not included in the max user
             // count), ten for partially deleted users if users are quickly removed,
             // and twice max user count for system and secure.
-            final int size = 1 + 2 + 10 + 2 * UserManager.getMaxSupportedUsers();
+            final int keyCount = 1 + 2 + 10 + 2 * UserManager.getMaxSupportedUsers();
+            // Use as many buckets per table as fit into the largest possible array.
+            mBucketCount = Integer.highestOneBit(Math.max(1,
+                    Math.min(MAX_BUCKET_COUNT, MemoryIntArray.getMaxSize() / keyCount)));
+            final int size = Math.min(keyCount * mBucketCount, MemoryIntArray.getMaxSize());
             try {
                 mBackingStore = new MemoryIntArray(size);
                 if (DEBUG) {
@@ -144,30 +166,37 @@ final class GenerationRegistry {
         }
     }
 
+    private static void incrementSlotLocked(MemoryIntArray backingStore, int index)
+            throws IOException {
+        backingStore.set(index, backingStore.get(index) + 1);
+    }
+
     private static void resetSlotForKeyLocked(int key, SparseIntArray keyToIndexMap,
-            MemoryIntArray backingStore) throws IOException {
+            MemoryIntArray backingStore, int bucketCount) throws IOException {
         final int index = keyToIndexMap.get(key, -1);
         if (index >= 0) {
             keyToIndexMap.delete(key);
-            backingStore.set(index, 0);
+            for (int i = 0; i < bucketCount; i++) {
+                backingStore.set(index + i, 0);
+            }
             if (DEBUG) {
-                Slog.i(LOG_TAG, "Freed index:" + index + " for key:"
-                        + SettingsProvider.keyToString(key));
+                Slog.i(LOG_TAG, "Freed index:" + index + " for key:" + key);
             }
         }
     }
 
     private static int getKeyIndexLocked(int key, SparseIntArray keyToIndexMap,
-            MemoryIntArray backingStore) throws IOException {
+            MemoryIntArray backingStore, int bucketCount) throws IOException {
         int index = keyToIndexMap.get(key, -1);
         if (index < 0) {
-            index = findNextEmptyIndex(backingStore);
+            index = findNextEmptyIndex(backingStore, bucketCount);
             if (index >= 0) {
-                backingStore.set(index, 1);
+                for (int i = 0; i < bucketCount; i++) {
+                    backingStore.set(index + i, 1);
+                }
                 keyToIndexMap.append(key, index);
                 if (DEBUG) {
-                    Slog.i(LOG_TAG, "Allocated index:" + index + " for key:"
-                            + SettingsProvider.keyToString(key));
+                    Slog.i(LOG_TAG, "Allocated index:" + index + " for key:" + key);
                 }
             } else {
                 Slog.e(LOG_TAG, "Could not allocate generation index");
@@ -176,9 +205,10 @@ final class GenerationRegistry {
         return index;
     }
 
-    private static int findNextEmptyIndex(MemoryIntArray backingStore) throws IOException {
-        final int size = backingStore.size();
-        for (int i = 0; i < size; i++) {
+    private static int findNextEmptyIndex(MemoryIntArray backingStore, int bucketCount)
+            throws IOException {
+        final int size = backingStore.size() - bucketCount + 1;
+        for (int i = 0; i < size; i += bucketCount) {
             if (backingStore.get(i) == 0) {
                 return i;
             }
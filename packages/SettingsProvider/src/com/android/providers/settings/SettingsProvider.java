@@ -341,17 +341,17 @@ public class SettingsProvider extends ContentProvider {
         switch (method) {
             case Settings.CALL_METHOD_GET_GLOBAL: {
                 Setting setting = getGlobalSetting(name);
-                return packageValueForCallResult(setting, isTrackingGeneration(args));
+                return packageValueForCallResult(name, setting, isTrackingGeneration(args));
             }
 
             case Settings.CALL_METHOD_GET_SECURE: {
                 Setting setting = getSecureSetting(name, requestingUserId);
-                return packageValueForCallResult(setting, isTrackingGeneration(args));
+                return packageValueForCallResult(name, setting, isTrackingGeneration(args));
             }
 
             case Settings.CALL_METHOD_GET_SYSTEM: {
                 Setting setting = getSystemSetting(name, requestingUserId);
-                return packageValueForCallResult(setting, isTrackingGeneration(args));
+                return packageValueForCallResult(name, setting, isTrackingGeneration(args));
             }
 
             case Settings.CALL_METHOD_PUT_GLOBAL: {
@@ -1894,7 +1894,7 @@ public class SettingsProvider extends ContentProvider {
                 "get/set setting for user", null);
     }
 
-    private Bundle packageValueForCallResult(Setting setting,
+    private Bundle packageValueForCallResult(String name, Setting setting,
             boolean trackingGeneration) {
         if (!trackingGeneration) {
             if (setting == null || setting.isNull()) {
@@ -1906,7 +1906,7 @@ public class SettingsProvider extends ContentProvider {
         result.putString(Settings.NameValueTable.VALUE,
                 !setting.isNull() ? setting.getValue() : null);
 
-        mSettingsRegistry.mGenerationRegistry.addGenerationData(result, setting.getKey());
+        mSettingsRegistry.mGenerationRegistry.addGenerationData(result, setting.getKey(), name);
         return result;
     }
 
@@ -2394,7 +2394,8 @@ public class SettingsProvider extends ContentProvider {
             }
 
             // Nuke generation tracking data
-            mGenerationRegistry.onUserRemoved(userId);
+            mGenerationRegistry.onTableRemoved(makeKey(SETTINGS_TYPE_SECURE, userId));
+            mGenerationRegistry.onTableRemoved(makeKey(SETTINGS_TYPE_SYSTEM, userId));
         }
 
         public boolean insertSettingLocked(int type, int userId, String name, String value,
@@ -2765,7 +2766,7 @@ public class SettingsProvider extends ContentProvider {
             final int userId = getUserIdFromKey(key);
             Uri uri = getNotificationUriFor(key, name);
 
-            mGenerationRegistry.incrementGeneration(key);
+            mGenerationRegistry.incrementGeneration(key, name);
 
             mHandler.obtainMessage(MyHandler.MSG_NOTIFY_URI_CHANGED,
                     userId, 0, uri).sendToTarget();
@@ -2792,7 +2793,9 @@ public class SettingsProvider extends ContentProvider {
                         mHandler.obtainMessage(MyHandler.MSG_NOTIFY_URI_CHANGED,
                                 profileId, 0, uri).sendToTarget();
                         final int key = makeKey(type, profileId);
-                        mGenerationRegistry.incrementGeneration(key);
+                        // Settings resolved through a dependency have other names than the
+                        // changed one, so invalidate the whole table of the profile.
+                        mGenerationRegistry.incrementGeneration(key, null);
 
                         mHandler.obtainMessage(MyHandler.MSG_NOTIFY_DATA_CHANGED).sendToTarget();
                     }
@@ -46,6 +46,7 @@ import android.util.Xml;
 import android.util.proto.ProtoOutputStream;
 
 import com.android.internal.annotations.GuardedBy;
+import com.android.internal.util.FastXmlSerializer;
 import com.android.server.LocalServices;
 
 import libcore.io.IoUtils;
@@ -590,7 +591,9 @@ final class SettingsState {
             try {
                 out = destination.startWrite();
 
-                XmlSerializer serializer = Xml.newSerializer();
+                // FastXmlSerializer buffers its output and avoids the per-attribute
+                // overhead of the generic serializer, which matters for large tables.
+                XmlSerializer serializer = new FastXmlSerializer();
                 serializer.setOutput(out, StandardCharsets.UTF_8.name());
                 serializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output",
                         true);
@@ -602,7 +605,7 @@ final class SettingsState {
                 for (int i = 0; i < settingCount; i++) {
                     Setting setting = settings.valueAt(i);
 
-                    writeSingleSetting(mVersion, serializer, setting.getId(), setting.getName(),
+                    writeSingleSetting(version, serializer, setting.getId(), setting.getName(),
                             setting.getValue(), setting.getDefaultValue(), setting.getPackageName(),
                             setting.getTag(), setting.isDefaultFromSystem());
 
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.providers.settings;
+
+import android.os.Bundle;
+import android.provider.Settings;
+import android.test.AndroidTestCase;
+import android.util.MemoryIntArray;
+
+import java.io.IOException;
+
+/**
+ * Tests for the per bucket generations of {@link GenerationRegistry}.
+ */
+public class GenerationRegistryTest extends AndroidTestCase {
+    // Keys of two tables, as built by SettingsProvider.makeKey() for the secure and
+    // system tables of the system user.
+    private static final int SECURE_KEY = 2 << 28;
+    private static final int SYSTEM_KEY = 1 << 28;
+
+    private static final String SETTING_NAME = "screen_brightness";
+
+    private GenerationRegistry mRegistry;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRegistry = new GenerationRegistry(new Object());
+    }
+
+    public void testChangeOnlyIncrementsItsBucket() throws Exception {
+        final Bundle data = getGenerationData(SECURE_KEY, "a");
+        final int bucketCount = getBucketCount(data);
+        final int[] before = readGenerations(data);
+
+        mRegistry.incrementGeneration(SECURE_KEY, SETTING_NAME);
+
+        final int[] after = readGenerations(data);
+        final int changedBucket = Settings.getGenerationBucket(SETTING_NAME, bucketCount);
+        assertEquals(before[changedBucket] + 1, after[changedBucket]);
+        for (int i = 0; i < bucketCount; i++) {
+            if (i != changedBucket) {
+                assertEquals("bucket " + i, before[i], after[i]);
+            }
+        }
+    }
+
+    public void testNullNameIncrementsAllBuckets() throws Exception {
+        // This is what a change cloned into a profile does.
+        final Bundle data = getGenerationData(SECURE_KEY, "a");
+        final int[] before = readGenerations(data);
+
+        mRegistry.incrementGeneration(SECURE_KEY, null);
+
+        final int[] after = readGenerations(data);
+        for (int i = 0; i < before.length; i++) {
+            assertEquals("bucket " + i, before[i] + 1, after[i]);
+        }
+    }
+
+    public void testExportedGenerationIsOfNameBucket() throws Exception {
+        final Bundle data = getGenerationData(SECURE_KEY, "a");
+        final int bucketCount = getBucketCount(data);
+        mRegistry.incrementGeneration(SECURE_KEY, SETTING_NAME);
+        mRegistry.incrementGeneration(SECURE_KEY, SETTING_NAME);
+
+        final Bundle nameData = getGenerationData(SECURE_KEY, SETTING_NAME);
+        final int[] generations = readGenerations(nameData);
+        assertEquals(generations[Settings.getGenerationBucket(SETTING_NAME, bucketCount)],
+                nameData.getInt(Settings.CALL_METHOD_GENERATION_KEY));
+    }
+
+    public void testTablesDoNotShareEntries() throws Exception {
+        final Bundle secureData = getGenerationData(SECURE_KEY, "a");
+        final Bundle systemData = getGenerationData(SYSTEM_KEY, "a");
+        assertFalse(secureData.getInt(Settings.CALL_METHOD_GENERATION_INDEX_KEY)
+                == systemData.getInt(Settings.CALL_METHOD_GENERATION_INDEX_KEY));
+        final int[] before = readGenerations(systemData);
+
+        mRegistry.incrementGeneration(SECURE_KEY, null);
+
+        final int[] after = readGenerations(systemData);
+        for (int i = 0; i < before.length; i++) {
+            assertEquals("bucket " + i, before[i], after[i]);
+        }
+    }
+
+    public void testTableRemovedFreesEntries() throws Exception {
+        final Bundle data = getGenerationData(SECURE_KEY, "a");
+        mRegistry.incrementGeneration(SECURE_KEY, null);
+
+        mRegistry.onTableRemoved(SECURE_KEY);
+
+        for (int generation : readGenerations(data)) {
+            assertEquals(0, generation);
+        }
+    }
+
+    private Bundle getGenerationData(int key, String name) {
+        final Bundle data = new Bundle();
+        mRegistry.addGenerationData(data, key, name);
+        assertNotNull(data.getParcelable(Settings.CALL_METHOD_TRACK_GENERATION_KEY));
+        return data;
+    }
+
+    private static int getBucketCount(Bundle data) {
+        return data.getInt(Settings.CALL_METHOD_GENERATION_BUCKETS_KEY, 1);
+    }
+
+    private static int[] readGenerations(Bundle data) throws IOException {
+        final MemoryIntArray array = data.getParcelable(Settings.CALL_METHOD_TRACK_GENERATION_KEY);
+        final int index = data.getInt(Settings.CALL_METHOD_GENERATION_INDEX_KEY);
+        final int[] generations = new int[getBucketCount(data)];
+        for (int i = 0; i < generations.length; i++) {
+            generations[i] = array.get(index + i);
+        }
+        return generations;
+    }
+}
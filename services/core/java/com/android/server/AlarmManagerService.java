@@ -153,6 +153,10 @@ class AlarmManagerService extends SystemService {
     long mLastTimeChangeRealtime;
     long mAllowWhileIdleMinTime;
     int mNumTimeChanged;
+    int mNumFullRebatches;
+    int mNumPartialRebatches;
+    long mNumRebatchedAlarms;
+    long mMaxRebatchTime;
 
     /**
      * The current set of user whitelisted apps for device idle mode, meaning these are allowed
@@ -687,6 +691,9 @@ class AlarmManagerService extends SystemService {
     static final BatchTimeOrder sBatchOrder = new BatchTimeOrder();
     final ArrayList<Batch> mAlarmBatches = new ArrayList<>();
 
+    // Batches that lost alarms during a removal and need to be coalesced again.
+    private final ArrayList<Batch> mTmpAffectedBatches = new ArrayList<>();
+
     // set to null if in idle mode; while in this mode, any alarms we don't want
     // to run during this time are placed in mPendingWhileIdleAlarms
     Alarm mPendingIdleUntil = null;
@@ -734,7 +741,19 @@ class AlarmManagerService extends SystemService {
 
     // Return the index of the matching batch, or -1 if none found.
     int attemptCoalesceLocked(long whenElapsed, long maxWhen) {
-        final int N = mAlarmBatches.size();
+        // Batches are ordered by start time, so only those starting no later than
+        // maxWhen can possibly hold the alarm.
+        int lo = 0;
+        int hi = mAlarmBatches.size();
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (mAlarmBatches.get(mid).start <= maxWhen) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        final int N = lo;
         for (int i = 0; i < N; i++) {
             Batch b = mAlarmBatches.get(i);
             if ((b.flags&AlarmManager.FLAG_STANDALONE) == 0 && b.canHold(whenElapsed, maxWhen)) {
@@ -763,7 +782,10 @@ class AlarmManagerService extends SystemService {
             for (int i = 0; i < N; i++) {
                 reAddAlarmLocked(batch.get(i), nowElapsed, doValidate);
             }
+            mNumRebatchedAlarms += N;
         }
+        mNumFullRebatches++;
+        noteRebatchTimeLocked(nowElapsed);
         if (oldPendingIdleUntil != null && oldPendingIdleUntil != mPendingIdleUntil) {
             Slog.wtf(TAG, "Rebatching: idle until changed from " + oldPendingIdleUntil
                     + " to " + mPendingIdleUntil);
@@ -776,6 +798,48 @@ class AlarmManagerService extends SystemService {
         updateNextAlarmClockLocked();
     }
 
+    /**
+     * Coalesce again just the alarms of batches that lost alarms in a removal; those
+     * batches must already have been taken out of {@link #mAlarmBatches}.  Batches that
+     * weren't touched still have valid bounds, so unlike {@link #rebatchAllAlarmsLocked}
+     * this only costs as much as the alarms that actually moved.
+     */
+    void rebatchAffectedAlarmsLocked(boolean doValidate) {
+        final long nowElapsed = SystemClock.elapsedRealtime();
+        final int numBatches = mTmpAffectedBatches.size();
+        for (int batchNum = 0; batchNum < numBatches; batchNum++) {
+            Batch batch = mTmpAffectedBatches.get(batchNum);
+            final int N = batch.size();
+            for (int i = 0; i < N; i++) {
+                reAddAlarmLocked(batch.get(i), nowElapsed, doValidate);
+            }
+            mNumRebatchedAlarms += N;
+        }
+        mTmpAffectedBatches.clear();
+        mNumPartialRebatches++;
+        noteRebatchTimeLocked(nowElapsed);
+        rescheduleKernelAlarmsLocked();
+        updateNextAlarmClockLocked();
+    }
+
+    /**
+     * Puts the batches affected by a removal back as they are, so that a full rebatch
+     * sees every pending alarm.
+     */
+    void restoreAffectedBatchesLocked() {
+        for (int i = mTmpAffectedBatches.size() - 1; i >= 0; i--) {
+            addBatchLocked(mAlarmBatches, mTmpAffectedBatches.get(i));
+        }
+        mTmpAffectedBatches.clear();
+    }
+
+    private void noteRebatchTimeLocked(long startElapsed) {
+        final long duration = SystemClock.elapsedRealtime() - startElapsed;
+        if (duration > mMaxRebatchTime) {
+            mMaxRebatchTime = duration;
+        }
+    }
+
     void reAddAlarmLocked(Alarm a, long nowElapsed, boolean doValidate) {
         a.when = a.origWhen;
         long whenElapsed = convertToElapsed(a.when, a.type);
@@ -1459,6 +1523,11 @@ class AlarmManagerService extends SystemService {
             pw.print(" set at "); TimeUtils.formatDuration(mLastWakeupSet, nowELAPSED, pw);
             pw.println();
             pw.print("  Num time change events: "); pw.println(mNumTimeChanged);
+            pw.print("  Rebatches: full="); pw.print(mNumFullRebatches);
+            pw.print(" partial="); pw.print(mNumPartialRebatches);
+            pw.print(" alarms="); pw.print(mNumRebatchedAlarms);
+            pw.print(" max time="); TimeUtils.formatDuration(mMaxRebatchTime, pw);
+            pw.println();
             pw.println("  mDeviceIdleUserWhitelist=" + Arrays.toString(mDeviceIdleUserWhitelist));
 
             pw.println();
@@ -1923,9 +1992,12 @@ class AlarmManagerService extends SystemService {
         boolean didRemove = false;
         for (int i = mAlarmBatches.size() - 1; i >= 0; i--) {
             Batch b = mAlarmBatches.get(i);
-            didRemove |= b.remove(operation, directReceiver);
-            if (b.size() == 0) {
+            if (b.remove(operation, directReceiver)) {
+                didRemove = true;
                 mAlarmBatches.remove(i);
+                if (b.size() > 0) {
+                    mTmpAffectedBatches.add(b);
+                }
             }
         }
         for (int i = mPendingWhileIdleAlarms.size() - 1; i >= 0; i--) {
@@ -1940,14 +2012,23 @@ class AlarmManagerService extends SystemService {
                 Slog.v(TAG, "remove(operation) changed bounds; rebatching");
             }
             boolean restorePending = false;
+            boolean rebatchAll = false;
             if (mPendingIdleUntil != null && mPendingIdleUntil.matches(operation, directReceiver)) {
                 mPendingIdleUntil = null;
                 restorePending = true;
+                rebatchAll = true;
             }
             if (mNextWakeFromIdle != null && mNextWakeFromIdle.matches(operation, directReceiver)) {
                 mNextWakeFromIdle = null;
+                rebatchAll = true;
+            }
+            if (rebatchAll) {
+                // Idle state changed, which can move any alarm.
+                restoreAffectedBatchesLocked();
+                rebatchAllAlarmsLocked(true);
+            } else {
+                rebatchAffectedAlarmsLocked(true);
             }
-            rebatchAllAlarmsLocked(true);
             if (restorePending) {
                 restorePendingWhileIdleAlarmsLocked();
             }
@@ -1959,9 +2040,12 @@ class AlarmManagerService extends SystemService {
         boolean didRemove = false;
         for (int i = mAlarmBatches.size() - 1; i >= 0; i--) {
             Batch b = mAlarmBatches.get(i);
-            didRemove |= b.remove(packageName);
-            if (b.size() == 0) {
+            if (b.remove(packageName)) {
+                didRemove = true;
                 mAlarmBatches.remove(i);
+                if (b.size() > 0) {
+                    mTmpAffectedBatches.add(b);
+                }
             }
         }
         for (int i = mPendingWhileIdleAlarms.size() - 1; i >= 0; i--) {
@@ -1976,9 +2060,7 @@ class AlarmManagerService extends SystemService {
             if (DEBUG_BATCH) {
                 Slog.v(TAG, "remove(package) changed bounds; rebatching");
             }
-            rebatchAllAlarmsLocked(true);
-            rescheduleKernelAlarmsLocked();
-            updateNextAlarmClockLocked();
+            rebatchAffectedAlarmsLocked(true);
         }
     }
 
@@ -1986,9 +2068,12 @@ class AlarmManagerService extends SystemService {
         boolean didRemove = false;
         for (int i = mAlarmBatches.size() - 1; i >= 0; i--) {
             Batch b = mAlarmBatches.get(i);
-            didRemove |= b.removeForStopped(uid);
-            if (b.size() == 0) {
+            if (b.removeForStopped(uid)) {
+                didRemove = true;
                 mAlarmBatches.remove(i);
+                if (b.size() > 0) {
+                    mTmpAffectedBatches.add(b);
+                }
             }
         }
         for (int i = mPendingWhileIdleAlarms.size() - 1; i >= 0; i--) {
@@ -2003,9 +2088,7 @@ class AlarmManagerService extends SystemService {
             if (DEBUG_BATCH) {
                 Slog.v(TAG, "remove(package) changed bounds; rebatching");
             }
-            rebatchAllAlarmsLocked(true);
-            rescheduleKernelAlarmsLocked();
-            updateNextAlarmClockLocked();
+            rebatchAffectedAlarmsLocked(true);
         }
     }
 
@@ -2013,9 +2096,12 @@ class AlarmManagerService extends SystemService {
         boolean didRemove = false;
         for (int i = mAlarmBatches.size() - 1; i >= 0; i--) {
             Batch b = mAlarmBatches.get(i);
-            didRemove |= b.remove(userHandle);
-            if (b.size() == 0) {
+            if (b.remove(userHandle)) {
+                didRemove = true;
                 mAlarmBatches.remove(i);
+                if (b.size() > 0) {
+                    mTmpAffectedBatches.add(b);
+                }
             }
         }
         for (int i = mPendingWhileIdleAlarms.size() - 1; i >= 0; i--) {
@@ -2035,9 +2121,7 @@ class AlarmManagerService extends SystemService {
             if (DEBUG_BATCH) {
                 Slog.v(TAG, "remove(user) changed bounds; rebatching");
             }
-            rebatchAllAlarmsLocked(true);
-            rescheduleKernelAlarmsLocked();
-            updateNextAlarmClockLocked();
+            rebatchAffectedAlarmsLocked(true);
         }
     }
 
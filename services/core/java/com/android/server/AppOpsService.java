@@ -16,12 +16,14 @@
 
 package com.android.server;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
@@ -66,6 +68,7 @@ import android.util.SparseIntArray;
 import android.util.TimeUtils;
 import android.util.Xml;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.app.IAppOpsService;
 import com.android.internal.app.IAppOpsCallback;
 import com.android.internal.os.Zygote;
@@ -93,6 +96,8 @@ public class AppOpsService extends IAppOpsService.Stub {
 
     boolean mWriteScheduled;
     boolean mFastWriteScheduled;
+    // Size of the last serialized state, used to size the next write buffer.
+    int mLastWriteSize;
     final Runnable mWriteRunner = new Runnable() {
         public void run() {
             synchronized (AppOpsService.this) {
@@ -111,6 +116,13 @@ public class AppOpsService extends IAppOpsService.Stub {
 
     private final SparseArray<UidState> mUidStates = new SparseArray<>();
 
+    /**
+     * Immutable view of everything {@link #checkOperation} depends on, so that checks don't
+     * need the service lock. Replaced under the lock whenever a mode or restriction changes;
+     * a mode change only rebuilds the entry of the affected uid.
+     */
+    private volatile ModeTable mModeTable = ModeTable.EMPTY;
+
     /*
      * These are app op restrictions imposed per user from various parties.
      */
@@ -136,6 +148,69 @@ public class AppOpsService extends IAppOpsService.Stub {
         }
     }
 
+    private static final class ModeTable {
+        static final int MODE_UNSET = -1;
+
+        static final ModeTable EMPTY = new ModeTable(new SparseArray<>(), new SparseArray<>());
+
+        // uid -> modes of that uid and of its packages. Never modified once published.
+        final SparseArray<UidModes> uidModes;
+        // user -> ops restricted for some package of that user by any client.
+        final SparseArray<boolean[]> restrictedOps;
+
+        ModeTable(SparseArray<UidModes> uidModes, SparseArray<boolean[]> restrictedOps) {
+            this.uidModes = uidModes;
+            this.restrictedOps = restrictedOps;
+        }
+
+        /** Returns a copy of this table with the entry of {@code uid} replaced. */
+        ModeTable withUidModes(int uid, UidModes modes) {
+            final SparseArray<UidModes> newUidModes = uidModes.clone();
+            if (modes != null) {
+                newUidModes.put(uid, modes);
+            } else {
+                newUidModes.remove(uid);
+            }
+            return new ModeTable(newUidModes, restrictedOps);
+        }
+
+        /** Returns a copy of this table with the restricted ops replaced. */
+        ModeTable withRestrictedOps(SparseArray<boolean[]> newRestrictedOps) {
+            return new ModeTable(uidModes, newRestrictedOps);
+        }
+
+        boolean mayBeRestricted(int code, int uid) {
+            final boolean[] restricted = restrictedOps.get(UserHandle.getUserId(uid));
+            return restricted != null && restricted[code];
+        }
+
+        int getMode(int switchCode, int uid, String packageName) {
+            final UidModes modes = uidModes.get(uid);
+            if (modes == null) {
+                return AppOpsManager.opToDefaultMode(switchCode);
+            }
+            if (modes.uidModes != null && modes.uidModes[switchCode] != MODE_UNSET) {
+                return modes.uidModes[switchCode];
+            }
+            final int[] pkgModes = modes.packageModes != null
+                    ? modes.packageModes.get(packageName) : null;
+            return pkgModes != null ? pkgModes[switchCode]
+                    : AppOpsManager.opToDefaultMode(switchCode);
+        }
+    }
+
+    private static final class UidModes {
+        // Modes indexed by op code, MODE_UNSET where the uid has no mode of its own.
+        final int[] uidModes;
+        // package -> modes indexed by op code, for packages with a non-default mode.
+        final ArrayMap<String, int[]> packageModes;
+
+        UidModes(int[] uidModes, ArrayMap<String, int[]> packageModes) {
+            this.uidModes = uidModes;
+            this.packageModes = packageModes;
+        }
+    }
+
     public final static class Ops extends SparseArray<Op> {
         public final String packageName;
         public final UidState uidState;
@@ -296,6 +371,7 @@ public class AppOpsService extends IAppOpsService.Stub {
                 }
             }
             if (changed) {
+                rebuildModeTableLocked();
                 scheduleFastWriteLocked();
             }
         }
@@ -369,6 +445,7 @@ public class AppOpsService extends IAppOpsService.Stub {
             }
 
             if (changed) {
+                updateUidModesLocked(uid);
                 scheduleFastWriteLocked();
             }
         }
@@ -378,6 +455,7 @@ public class AppOpsService extends IAppOpsService.Stub {
         synchronized (this) {
             if (mUidStates.indexOfKey(uid) >= 0) {
                 mUidStates.remove(uid);
+                updateUidModesLocked(uid);
                 scheduleFastWriteLocked();
             }
         }
@@ -567,11 +645,13 @@ public class AppOpsService extends IAppOpsService.Stub {
                 uidState.opModes = new SparseIntArray();
                 uidState.opModes.put(code, mode);
                 mUidStates.put(uid, uidState);
+                updateUidModesLocked(uid);
                 scheduleWriteLocked();
             } else if (uidState.opModes == null) {
                 if (mode != defaultMode) {
                     uidState.opModes = new SparseIntArray();
                     uidState.opModes.put(code, mode);
+                    updateUidModesLocked(uid);
                     scheduleWriteLocked();
                 }
             } else {
@@ -586,6 +666,7 @@ public class AppOpsService extends IAppOpsService.Stub {
                 } else {
                     uidState.opModes.put(code, mode);
                 }
+                updateUidModesLocked(uid);
                 scheduleWriteLocked();
             }
         }
@@ -672,6 +753,7 @@ public class AppOpsService extends IAppOpsService.Stub {
             if (op != null) {
                 if (op.mode != mode) {
                     op.mode = mode;
+                    updateUidModesLocked(uid);
                     ArraySet<Callback> cbs = mOpModeWatchers.get(code);
                     if (cbs != null) {
                         if (repCbs == null) {
@@ -848,6 +930,7 @@ public class AppOpsService extends IAppOpsService.Stub {
                 }
             }
 
+            rebuildModeTableLocked();
             if (changed) {
                 scheduleFastWriteLocked();
             }
@@ -945,24 +1028,37 @@ public class AppOpsService extends IAppOpsService.Stub {
         if (resolvedPackageName == null) {
             return AppOpsManager.MODE_IGNORED;
         }
+        final ModeTable modeTable = mModeTable;
+        if (!modeTable.mayBeRestricted(code, uid)) {
+            return modeTable.getMode(AppOpsManager.opToSwitch(code), uid, resolvedPackageName);
+        }
         synchronized (this) {
-            if (isOpRestrictedLocked(uid, code, resolvedPackageName)) {
-                return AppOpsManager.MODE_IGNORED;
-            }
-            code = AppOpsManager.opToSwitch(code);
-            UidState uidState = getUidStateLocked(uid, false);
-            if (uidState != null && uidState.opModes != null
-                    && uidState.opModes.indexOfKey(code) >= 0) {
-                return uidState.opModes.get(code);
-            }
-            Op op = getOpLocked(code, uid, resolvedPackageName, false);
-            if (op == null) {
-                return AppOpsManager.opToDefaultMode(code);
-            }
-            return op.mode;
+            return checkOperationLocked(code, uid, resolvedPackageName);
         }
     }
 
+    /**
+     * Answers {@link #checkOperation} from the full service state, which is needed when
+     * the op may be restricted for the uid.
+     */
+    @VisibleForTesting
+    int checkOperationLocked(int code, int uid, String resolvedPackageName) {
+        if (isOpRestrictedLocked(uid, code, resolvedPackageName)) {
+            return AppOpsManager.MODE_IGNORED;
+        }
+        code = AppOpsManager.opToSwitch(code);
+        UidState uidState = getUidStateLocked(uid, false);
+        if (uidState != null && uidState.opModes != null
+                && uidState.opModes.indexOfKey(code) >= 0) {
+            return uidState.opModes.get(code);
+        }
+        Op op = getOpLocked(code, uid, resolvedPackageName, false);
+        if (op == null) {
+            return AppOpsManager.opToDefaultMode(code);
+        }
+        return op.mode;
+    }
+
     @Override
     public int checkAudioOperation(int code, int usage, int uid, String packageName) {
         boolean suspended;
@@ -1377,6 +1473,96 @@ public class AppOpsService extends IAppOpsService.Stub {
         return op;
     }
 
+    /** Publishes a new {@link #mModeTable} in which only the entry of {@code uid} changed. */
+    private void updateUidModesLocked(int uid) {
+        mModeTable = mModeTable.withUidModes(uid, buildUidModesLocked(mUidStates.get(uid)));
+    }
+
+    /** Publishes a new {@link #mModeTable} after a change to the user restrictions. */
+    private void updateRestrictedOpsLocked() {
+        mModeTable = mModeTable.withRestrictedOps(buildRestrictedOpsLocked());
+    }
+
+    /** Publishes a new {@link #mModeTable} after changes to many uids at once. */
+    private void rebuildModeTableLocked() {
+        final SparseArray<UidModes> uidModes = new SparseArray<>();
+        for (int i = mUidStates.size() - 1; i >= 0; i--) {
+            final UidModes modes = buildUidModesLocked(mUidStates.valueAt(i));
+            if (modes != null) {
+                uidModes.put(mUidStates.keyAt(i), modes);
+            }
+        }
+        mModeTable = new ModeTable(uidModes, buildRestrictedOpsLocked());
+    }
+
+    private UidModes buildUidModesLocked(UidState uidState) {
+        if (uidState == null) {
+            return null;
+        }
+        int[] uidModes = null;
+        final SparseIntArray opModes = uidState.opModes;
+        if (opModes != null && opModes.size() > 0) {
+            uidModes = new int[AppOpsManager._NUM_OP];
+            Arrays.fill(uidModes, ModeTable.MODE_UNSET);
+            for (int j = opModes.size() - 1; j >= 0; j--) {
+                uidModes[opModes.keyAt(j)] = opModes.valueAt(j);
+            }
+        }
+        ArrayMap<String, int[]> packageModes = null;
+        if (uidState.pkgOps != null) {
+            for (int j = uidState.pkgOps.size() - 1; j >= 0; j--) {
+                final Ops ops = uidState.pkgOps.valueAt(j);
+                int[] modes = null;
+                for (int k = ops.size() - 1; k >= 0; k--) {
+                    final Op op = ops.valueAt(k);
+                    if (op.mode == AppOpsManager.opToDefaultMode(op.op)) {
+                        continue;
+                    }
+                    if (modes == null) {
+                        modes = new int[AppOpsManager._NUM_OP];
+                        for (int code = 0; code < modes.length; code++) {
+                            modes[code] = AppOpsManager.opToDefaultMode(code);
+                        }
+                    }
+                    modes[op.op] = op.mode;
+                }
+                if (modes != null) {
+                    if (packageModes == null) {
+                        packageModes = new ArrayMap<>();
+                    }
+                    packageModes.put(ops.packageName, modes);
+                }
+            }
+        }
+        if (uidModes == null && packageModes == null) {
+            return null;
+        }
+        return new UidModes(uidModes, packageModes);
+    }
+
+    private SparseArray<boolean[]> buildRestrictedOpsLocked() {
+        final SparseArray<boolean[]> restrictedOps = new SparseArray<>();
+        for (int i = mOpUserRestrictions.size() - 1; i >= 0; i--) {
+            final SparseArray<boolean[]> perUser = mOpUserRestrictions.valueAt(i)
+                    .perUserRestrictions;
+            if (perUser == null) {
+                continue;
+            }
+            for (int j = perUser.size() - 1; j >= 0; j--) {
+                final boolean[] restrictions = perUser.valueAt(j);
+                boolean[] restricted = restrictedOps.get(perUser.keyAt(j));
+                if (restricted == null) {
+                    restricted = new boolean[AppOpsManager._NUM_OP];
+                    restrictedOps.put(perUser.keyAt(j), restricted);
+                }
+                for (int code = 0; code < restrictions.length; code++) {
+                    restricted[code] |= restrictions[code];
+                }
+            }
+        }
+        return restrictedOps;
+    }
+
     private boolean isOpRestrictedLocked(int uid, int code, String packageName) {
         int userHandle = UserHandle.getUserId(uid);
         final int restrictionSetCount = mOpUserRestrictions.size();
@@ -1461,6 +1647,7 @@ public class AppOpsService extends IAppOpsService.Stub {
                     if (!success) {
                         mUidStates.clear();
                     }
+                    rebuildModeTableLocked();
                     try {
                         stream.close();
                     } catch (IOException e) {
@@ -1602,7 +1789,20 @@ public class AppOpsService extends IAppOpsService.Stub {
 
     void writeState() {
         synchronized (mFile) {
-            List<AppOpsManager.PackageOps> allOps = getPackagesForOps(null);
+            // Serialize straight from the live state into memory while holding the lock,
+            // rather than first copying every op into PackageOps/OpEntry objects; the
+            // disk I/O below then happens without blocking op checks.
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream(
+                    Math.max(mLastWriteSize, 4096));
+            try {
+                synchronized (this) {
+                    writeStateLocked(buffer);
+                }
+            } catch (IOException e) {
+                Slog.w(TAG, "Failed to serialize state", e);
+                return;
+            }
+            mLastWriteSize = buffer.size();
 
             FileOutputStream stream;
             try {
@@ -1613,100 +1813,98 @@ public class AppOpsService extends IAppOpsService.Stub {
             }
 
             try {
-                XmlSerializer out = new FastXmlSerializer();
-                out.setOutput(stream, StandardCharsets.UTF_8.name());
-                out.startDocument(null, true);
-                out.startTag(null, "app-ops");
-
-                final int uidStateCount = mUidStates.size();
-                for (int i = 0; i < uidStateCount; i++) {
-                    UidState uidState = mUidStates.valueAt(i);
-                    if (uidState.opModes != null && uidState.opModes.size() > 0) {
-                        out.startTag(null, "uid");
-                        out.attribute(null, "n", Integer.toString(uidState.uid));
-                        SparseIntArray uidOpModes = uidState.opModes;
-                        final int opCount = uidOpModes.size();
-                        for (int j = 0; j < opCount; j++) {
-                            final int op = uidOpModes.keyAt(j);
-                            final int mode = uidOpModes.valueAt(j);
-                            out.startTag(null, "op");
-                            out.attribute(null, "n", Integer.toString(op));
-                            out.attribute(null, "m", Integer.toString(mode));
-                            out.endTag(null, "op");
-                        }
-                        out.endTag(null, "uid");
-                    }
+                buffer.writeTo(stream);
+                mFile.finishWrite(stream);
+            } catch (IOException e) {
+                Slog.w(TAG, "Failed to write state, restoring backup.", e);
+                mFile.failWrite(stream);
+            }
+        }
+    }
+
+    private void writeStateLocked(OutputStream stream) throws IOException {
+        XmlSerializer out = new FastXmlSerializer();
+        out.setOutput(stream, StandardCharsets.UTF_8.name());
+        out.startDocument(null, true);
+        out.startTag(null, "app-ops");
+
+        final int uidStateCount = mUidStates.size();
+        for (int i = 0; i < uidStateCount; i++) {
+            UidState uidState = mUidStates.valueAt(i);
+            if (uidState.opModes != null && uidState.opModes.size() > 0) {
+                out.startTag(null, "uid");
+                out.attribute(null, "n", Integer.toString(uidState.uid));
+                SparseIntArray uidOpModes = uidState.opModes;
+                final int opCount = uidOpModes.size();
+                for (int j = 0; j < opCount; j++) {
+                    final int op = uidOpModes.keyAt(j);
+                    final int mode = uidOpModes.valueAt(j);
+                    out.startTag(null, "op");
+                    out.attribute(null, "n", Integer.toString(op));
+                    out.attribute(null, "m", Integer.toString(mode));
+                    out.endTag(null, "op");
                 }
+                out.endTag(null, "uid");
+            }
+        }
 
-                if (allOps != null) {
-                    String lastPkg = null;
-                    for (int i=0; i<allOps.size(); i++) {
-                        AppOpsManager.PackageOps pkg = allOps.get(i);
-                        if (!pkg.getPackageName().equals(lastPkg)) {
-                            if (lastPkg != null) {
-                                out.endTag(null, "pkg");
-                            }
-                            lastPkg = pkg.getPackageName();
-                            out.startTag(null, "pkg");
-                            out.attribute(null, "n", lastPkg);
-                        }
-                        out.startTag(null, "uid");
-                        out.attribute(null, "n", Integer.toString(pkg.getUid()));
-                        synchronized (this) {
-                            Ops ops = getOpsRawLocked(pkg.getUid(), pkg.getPackageName(), false);
-                            // Should always be present as the list of PackageOps is generated
-                            // from Ops.
-                            if (ops != null) {
-                                out.attribute(null, "p", Boolean.toString(ops.isPrivileged));
-                            } else {
-                                out.attribute(null, "p", Boolean.toString(false));
-                            }
-                        }
-                        List<AppOpsManager.OpEntry> ops = pkg.getOps();
-                        for (int j=0; j<ops.size(); j++) {
-                            AppOpsManager.OpEntry op = ops.get(j);
-                            out.startTag(null, "op");
-                            out.attribute(null, "n", Integer.toString(op.getOp()));
-                            if (op.getMode() != AppOpsManager.opToDefaultMode(op.getOp())) {
-                                out.attribute(null, "m", Integer.toString(op.getMode()));
-                            }
-                            long time = op.getTime();
-                            if (time != 0) {
-                                out.attribute(null, "t", Long.toString(time));
-                            }
-                            time = op.getRejectTime();
-                            if (time != 0) {
-                                out.attribute(null, "r", Long.toString(time));
-                            }
-                            int dur = op.getDuration();
-                            if (dur != 0) {
-                                out.attribute(null, "d", Integer.toString(dur));
-                            }
-                            int proxyUid = op.getProxyUid();
-                            if (proxyUid != -1) {
-                                out.attribute(null, "pu", Integer.toString(proxyUid));
-                            }
-                            String proxyPackageName = op.getProxyPackageName();
-                            if (proxyPackageName != null) {
-                                out.attribute(null, "pp", proxyPackageName);
-                            }
-                            out.endTag(null, "op");
-                        }
-                        out.endTag(null, "uid");
-                    }
+        String lastPkg = null;
+        for (int i = 0; i < uidStateCount; i++) {
+            UidState uidState = mUidStates.valueAt(i);
+            if (uidState.pkgOps == null) {
+                continue;
+            }
+            final int packageCount = uidState.pkgOps.size();
+            for (int j = 0; j < packageCount; j++) {
+                Ops ops = uidState.pkgOps.valueAt(j);
+                if (!ops.packageName.equals(lastPkg)) {
                     if (lastPkg != null) {
                         out.endTag(null, "pkg");
                     }
+                    lastPkg = ops.packageName;
+                    out.startTag(null, "pkg");
+                    out.attribute(null, "n", lastPkg);
                 }
-
-                out.endTag(null, "app-ops");
-                out.endDocument();
-                mFile.finishWrite(stream);
-            } catch (IOException e) {
-                Slog.w(TAG, "Failed to write state, restoring backup.", e);
-                mFile.failWrite(stream);
+                out.startTag(null, "uid");
+                out.attribute(null, "n", Integer.toString(uidState.uid));
+                out.attribute(null, "p", Boolean.toString(ops.isPrivileged));
+                final int opCount = ops.size();
+                for (int k = 0; k < opCount; k++) {
+                    Op op = ops.valueAt(k);
+                    out.startTag(null, "op");
+                    out.attribute(null, "n", Integer.toString(op.op));
+                    if (op.mode != AppOpsManager.opToDefaultMode(op.op)) {
+                        out.attribute(null, "m", Integer.toString(op.mode));
+                    }
+                    if (op.time != 0) {
+                        out.attribute(null, "t", Long.toString(op.time));
+                    }
+                    if (op.rejectTime != 0) {
+                        out.attribute(null, "r", Long.toString(op.rejectTime));
+                    }
+                    // A running op stores -1; persist how long it has been running so far.
+                    final int duration = op.duration == -1
+                            ? (int) (System.currentTimeMillis() - op.time) : op.duration;
+                    if (duration != 0) {
+                        out.attribute(null, "d", Integer.toString(duration));
+                    }
+                    if (op.proxyUid != -1) {
+                        out.attribute(null, "pu", Integer.toString(op.proxyUid));
+                    }
+                    if (op.proxyPackageName != null) {
+                        out.attribute(null, "pp", op.proxyPackageName);
+                    }
+                    out.endTag(null, "op");
+                }
+                out.endTag(null, "uid");
             }
         }
+        if (lastPkg != null) {
+            out.endTag(null, "pkg");
+        }
+
+        out.endTag(null, "app-ops");
+        out.endDocument();
     }
 
     static class Shell extends ShellCommand {
@@ -2403,6 +2601,9 @@ public class AppOpsService extends IAppOpsService.Stub {
                 mOpUserRestrictions.remove(token);
                 restrictionState.destroy();
             }
+            if (notifyChange) {
+                updateRestrictedOpsLocked();
+            }
         }
 
         if (notifyChange) {
@@ -2449,6 +2650,7 @@ public class AppOpsService extends IAppOpsService.Stub {
                 opRestrictions.removeUser(userHandle);
             }
             removeUidsForUserLocked(userHandle);
+            rebuildModeTableLocked();
         }
     }
 
@@ -2593,6 +2795,7 @@ public class AppOpsService extends IAppOpsService.Stub {
         public void binderDied() {
             synchronized (AppOpsService.this) {
                 mOpUserRestrictions.remove(token);
+                updateRestrictedOpsLocked();
                 if (perUserRestrictions == null) {
                     return;
                 }
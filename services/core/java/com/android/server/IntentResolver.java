@@ -23,6 +23,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 
 import android.net.Uri;
@@ -30,6 +31,7 @@ import android.util.FastImmutableArraySet;
 import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.Log;
+import android.util.LruCache;
 import android.util.MutableInt;
 import android.util.PrintWriterPrinter;
 import android.util.Slog;
@@ -39,6 +41,9 @@ import android.util.Printer;
 import android.content.Intent;
 import android.content.IntentFilter;
 import com.android.internal.util.FastPrintWriter;
+import com.android.internal.util.GrowingArrayUtils;
+
+import libcore.util.EmptyArray;
 
 /**
  * {@hide}
@@ -57,6 +62,7 @@ public abstract class IntentResolver<F extends IntentFilter, R extends Object> {
         }
 
         mFilters.add(f);
+        mMatchCache.evictAll();
         int numS = register_intent_filter(f, f.schemesIterator(),
                 mSchemeToFilter, "      Scheme: ");
         int numT = register_mime_types(f, "      Type: ");
@@ -200,6 +206,7 @@ public abstract class IntentResolver<F extends IntentFilter, R extends Object> {
             Slog.v(TAG, "    Cleaning Lookup Maps:");
         }
 
+        mMatchCache.evictAll();
         int numS = unregister_intent_filter(f, f.schemesIterator(),
                 mSchemeToFilter, "      Scheme: ");
         int numT = unregister_mime_types(f, "      Type: ");
@@ -442,6 +449,26 @@ public abstract class IntentResolver<F extends IntentFilter, R extends Object> {
         }
 
         FastImmutableArraySet<String> categories = getFastIntentCategories(intent);
+
+        // Intents without data are resolved through the match cache: the result of
+        // IntentFilter.match() only depends on the filters and on the action, type and
+        // categories of the intent, so it can be reused until the filters change.
+        if (!debug && intent.getData() == null) {
+            final MatchCacheKey key = new MatchCacheKey(intent, resolvedType);
+            MatchCacheEntry<F> entry = mMatchCache.get(key);
+            if (entry == null) {
+                entry = new MatchCacheEntry<>();
+                collectMatches(intent, categories, resolvedType, firstTypeCut, entry);
+                collectMatches(intent, categories, resolvedType, secondTypeCut, entry);
+                collectMatches(intent, categories, resolvedType, thirdTypeCut, entry);
+                mMatchCache.put(key, entry);
+            }
+            buildResolveListFromMatches(intent, defaultOnly, entry, finalList, userId);
+            filterResults(finalList);
+            sortResults(finalList);
+            return finalList;
+        }
+
         if (firstTypeCut != null) {
             buildResolveList(intent, categories, debug, defaultOnly, resolvedType,
                     scheme, firstTypeCut, finalList, userId);
@@ -796,6 +823,116 @@ public abstract class IntentResolver<F extends IntentFilter, R extends Object> {
         }
     }
 
+    /**
+     * Runs {@link IntentFilter#match} against all filters of {@code src} and records the
+     * matching ones in {@code entry}.
+     */
+    private void collectMatches(Intent intent, FastImmutableArraySet<String> categories,
+            String resolvedType, F[] src, MatchCacheEntry<F> entry) {
+        final String action = intent.getAction();
+        final int N = src != null ? src.length : 0;
+        F filter;
+        for (int i=0; i<N && (filter=src[i]) != null; i++) {
+            final int match = filter.match(action, resolvedType, null, null, categories, TAG);
+            if (match >= 0) {
+                entry.add(filter, match);
+            }
+        }
+    }
+
+    /**
+     * Equivalent of {@link #buildResolveList} for matches taken from {@link #mMatchCache};
+     * only the per-user and per-caller checks are evaluated.
+     */
+    private void buildResolveListFromMatches(Intent intent, boolean defaultOnly,
+            MatchCacheEntry<F> entry, List<R> dest, int userId) {
+        final String packageName = intent.getPackage();
+        final boolean excludingStopped = intent.isExcludingStopped();
+
+        final int N = entry.size;
+        for (int i=0; i<N; i++) {
+            final F filter = entry.filters.get(i);
+            if (excludingStopped && isFilterStopped(filter, userId)) {
+                continue;
+            }
+            if (packageName != null && !isPackageForFilter(packageName, filter)) {
+                continue;
+            }
+            if (!allowFilterResult(filter, dest)) {
+                continue;
+            }
+            if (!defaultOnly || filter.hasCategory(Intent.CATEGORY_DEFAULT)) {
+                final R oneResult = newResult(filter, entry.matches[i], userId);
+                if (oneResult != null) {
+                    dest.add(oneResult);
+                }
+            }
+        }
+    }
+
+    /**
+     * Key of {@link #mMatchCache}: the action, resolved type and categories of an intent
+     * without data. Categories are compared as a set.
+     */
+    private static final class MatchCacheKey {
+        final String action;
+        final String resolvedType;
+        final String[] categories;
+        final int hashCode;
+
+        MatchCacheKey(Intent intent, String resolvedType) {
+            this.action = intent.getAction();
+            this.resolvedType = resolvedType;
+            final Set<String> categories = intent.getCategories();
+            if (categories != null) {
+                this.categories = categories.toArray(new String[categories.size()]);
+                Arrays.sort(this.categories);
+            } else {
+                this.categories = EmptyArray.STRING;
+            }
+            int result = Objects.hashCode(action);
+            result = 31 * result + Objects.hashCode(resolvedType);
+            result = 31 * result + Arrays.hashCode(this.categories);
+            hashCode = result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof MatchCacheKey)) {
+                return false;
+            }
+            final MatchCacheKey other = (MatchCacheKey) o;
+            return hashCode == other.hashCode
+                    && Objects.equals(action, other.action)
+                    && Objects.equals(resolvedType, other.resolvedType)
+                    && Arrays.equals(categories, other.categories);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * Filters matching an intent, in the order in which they were found, together with
+     * the result of {@link IntentFilter#match} for each of them.
+     */
+    private static final class MatchCacheEntry<F extends IntentFilter> {
+        final ArrayList<F> filters = new ArrayList<>();
+        int[] matches = EmptyArray.INT;
+        int size;
+
+        void add(F filter, int match) {
+            filters.add(filter);
+            matches = GrowingArrayUtils.append(matches, size, match);
+            size++;
+        }
+    }
+
     // Sorts a List of IntentFilter objects into descending priority order.
     @SuppressWarnings("rawtypes")
     private static final Comparator mResolvePrioritySorter = new Comparator() {
@@ -806,6 +943,18 @@ public abstract class IntentResolver<F extends IntentFilter, R extends Object> {
         }
     };
 
+    /**
+     * Maximum number of entries kept in {@link #mMatchCache}.
+     */
+    private static final int MATCH_CACHE_SIZE = 128;
+
+    /**
+     * Results of {@link IntentFilter#match} for recently resolved intents without data,
+     * keyed by action, type and categories. Cleared whenever a filter is added or removed.
+     */
+    private final LruCache<MatchCacheKey, MatchCacheEntry<F>> mMatchCache =
+            new LruCache<>(MATCH_CACHE_SIZE);
+
     /**
      * All filters that have been registered.
      */
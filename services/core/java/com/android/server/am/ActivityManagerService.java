@@ -351,6 +351,7 @@ import android.util.Pair;
 import android.util.PrintWriterPrinter;
 import android.util.Slog;
 import android.util.SparseArray;
+import android.util.SparseBooleanArray;
 import android.util.SparseIntArray;
 import android.util.TimeUtils;
 import android.util.Xml;
@@ -930,6 +931,23 @@ public class ActivityManagerService extends IActivityManager.Stub
      */
     final SparseArray<UidRecord> mActiveUids = new SparseArray<>();
 
+    /**
+     * Process state of all uids in {@link #mActiveUids}, as last published by
+     * {@link #publishUidStateLocked}.  Binder calls that only query uid state read this
+     * instead of waiting behind oom adj computations for the global lock.
+     *
+     * <p>NOTE: This object is protected by its own lock, NOT the global
+     * activity manager lock!
+     */
+    final SparseIntArray mUidProcStatesSelfLocked = new SparseIntArray();
+
+    /**
+     * Idle state of all uids in {@link #mUidProcStatesSelfLocked}.
+     *
+     * <p>NOTE: This object is protected by the {@link #mUidProcStatesSelfLocked} lock.
+     */
+    final SparseBooleanArray mIdleUids = new SparseBooleanArray();
+
     /**
      * This is for verifying the UID report flow.
      */
@@ -1527,6 +1545,12 @@ public class ActivityManagerService extends IActivityManager.Stub
 
     final long[] mTmpLong = new long[2];
 
+    /** Work list of {@link #updateReachableOomAdjLocked}, only used with the AMS lock held. */
+    private final ArrayList<ProcessRecord> mTmpReachableProcesses = new ArrayList<>();
+
+    /** Processes already visited by {@link #updateReachableOomAdjLocked}. */
+    private final ArraySet<ProcessRecord> mTmpReachableVisited = new ArraySet<>();
+
     private final ArraySet<BroadcastQueue> mTmpBroadcastQueue = new ArraySet();
 
     /**
@@ -6557,6 +6581,7 @@ public class ActivityManagerService extends IActivityManager.Stub
                 enqueueUidChangeLocked(old.uidRecord, -1, UidRecord.CHANGE_GONE);
                 EventLogTags.writeAmUidStopped(uid);
                 mActiveUids.remove(uid);
+                unpublishUidStateLocked(uid);
                 noteUidProcessState(uid, ActivityManager.PROCESS_STATE_NONEXISTENT);
             }
             old.uidRecord = null;
@@ -6587,6 +6612,7 @@ public class ActivityManagerService extends IActivityManager.Stub
             }
             uidRec.updateHasInternetPermission();
             mActiveUids.put(proc.uid, uidRec);
+            publishUidStateLocked(uidRec);
             EventLogTags.writeAmUidRunning(uidRec.uid);
             noteUidProcessState(uidRec.uid, uidRec.curProcState);
             enqueueUidChangeLocked(uidRec, -1, UidRecord.CHANGE_ACTIVE);
@@ -7846,20 +7872,39 @@ public class ActivityManagerService extends IActivityManager.Stub
 
     @Override
     public boolean isAppForeground(int uid) throws RemoteException {
-        synchronized (this) {
-            UidRecord uidRec = mActiveUids.get(uid);
-            if (uidRec == null || uidRec.idle) {
+        synchronized (mUidProcStatesSelfLocked) {
+            final int index = mUidProcStatesSelfLocked.indexOfKey(uid);
+            if (index < 0 || mIdleUids.get(uid)) {
                 return false;
             }
-            return uidRec.curProcState <= ActivityManager.PROCESS_STATE_IMPORTANT_FOREGROUND;
+            return mUidProcStatesSelfLocked.valueAt(index)
+                    <= ActivityManager.PROCESS_STATE_IMPORTANT_FOREGROUND;
         }
     }
 
     // NOTE: this is an internal method used by the OnShellCommand implementation only and should
     // be guarded by permission checking.
     int getUidState(int uid) {
-        synchronized (this) {
-            return getUidStateLocked(uid);
+        synchronized (mUidProcStatesSelfLocked) {
+            return mUidProcStatesSelfLocked.get(uid, ActivityManager.PROCESS_STATE_NONEXISTENT);
+        }
+    }
+
+    /**
+     * Publishes the current process state and idle state of {@code uidRec} to
+     * {@link #mUidProcStatesSelfLocked}.
+     */
+    final void publishUidStateLocked(UidRecord uidRec) {
+        synchronized (mUidProcStatesSelfLocked) {
+            mUidProcStatesSelfLocked.put(uidRec.uid, uidRec.curProcState);
+            mIdleUids.put(uidRec.uid, uidRec.idle);
+        }
+    }
+
+    final void unpublishUidStateLocked(int uid) {
+        synchronized (mUidProcStatesSelfLocked) {
+            mUidProcStatesSelfLocked.delete(uid);
+            mIdleUids.delete(uid);
         }
     }
 
@@ -13186,10 +13231,7 @@ public class ActivityManagerService extends IActivityManager.Stub
                     "getUidProcessState");
         }
 
-        synchronized (this) {
-            UidRecord uidRec = mActiveUids.get(uid);
-            return uidRec != null ? uidRec.curProcState : ActivityManager.PROCESS_STATE_NONEXISTENT;
-        }
+        return getUidState(uid);
     }
 
     @Override
@@ -22380,17 +22422,105 @@ public class ActivityManagerService extends IActivityManager.Stub
         // need to do a complete oom adj.
         final int cachedAdj = app.curRawAdj >= ProcessList.CACHED_APP_MIN_ADJ
                 ? app.curRawAdj : ProcessList.UNKNOWN_ADJ;
-        boolean success = updateOomAdjLocked(app, cachedAdj, TOP_APP, false,
-                SystemClock.uptimeMillis());
+        final int oldAdj = app.curAdj;
+        final int oldProcState = app.curProcState;
+        final int oldSchedGroup = app.curSchedGroup;
+        final long now = SystemClock.uptimeMillis();
+        boolean success = updateOomAdjLocked(app, cachedAdj, TOP_APP, false, now);
         if (oomAdjAll
                 && (wasCached != app.cached || app.curRawAdj == ProcessList.UNKNOWN_ADJ)) {
             // Changed to/from cached state, so apps after it in the LRU
             // list may also be changed.
             updateOomAdjLocked();
+            return success;
+        }
+        if (oldAdj != app.curAdj || oldProcState != app.curProcState
+                || oldSchedGroup != app.curSchedGroup) {
+            // The processes app is bound to or holds providers from depend on it, so
+            // re-evaluate them instead of the whole LRU list.
+            if (!updateReachableOomAdjLocked(app, TOP_APP, now) && oomAdjAll) {
+                updateOomAdjLocked();
+            }
         }
         return success;
     }
 
+    /**
+     * Re-evaluates the processes hosting services and content providers that {@code app}
+     * is a client of, following those edges for as long as the importance of the
+     * re-evaluated processes keeps changing.
+     *
+     * <p>The whole walk runs under a single {@link #mAdjSeq}, so computing a host may
+     * already have computed some of its clients as a side effect. Whether a process
+     * changed is therefore decided against the values last applied to it rather than
+     * against the values it had when the walk reached it.
+     *
+     * @return false if one of the processes changed to or from the cached state, in which
+     *         case the other processes in the LRU list may need to be updated as well.
+     */
+    @VisibleForTesting
+    boolean updateReachableOomAdjLocked(ProcessRecord app, ProcessRecord TOP_APP, long now) {
+        final ArrayList<ProcessRecord> queue = mTmpReachableProcesses;
+        final ArraySet<ProcessRecord> visited = mTmpReachableVisited;
+        queue.clear();
+        visited.clear();
+        queue.add(app);
+        visited.add(app);
+        try {
+            for (int i = 0; i < queue.size(); i++) {
+                final ProcessRecord client = queue.get(i);
+                for (int j = client.connections.size() - 1; j >= 0; j--) {
+                    final ProcessRecord host = client.connections.valueAt(j).binding.service.app;
+                    if (!updateReachableProcessLocked(host, TOP_APP, now, queue, visited)) {
+                        return false;
+                    }
+                }
+                for (int j = client.conProviders.size() - 1; j >= 0; j--) {
+                    final ProcessRecord host = client.conProviders.get(j).provider.proc;
+                    if (!updateReachableProcessLocked(host, TOP_APP, now, queue, visited)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } finally {
+            queue.clear();
+            visited.clear();
+        }
+    }
+
+    private boolean updateReachableProcessLocked(ProcessRecord host, ProcessRecord TOP_APP,
+            long now, ArrayList<ProcessRecord> queue, ArraySet<ProcessRecord> visited) {
+        if (host == null || host.thread == null || !visited.add(host)) {
+            return true;
+        }
+        computeReachableOomAdjLocked(host, TOP_APP, now);
+        final boolean wasCached = host.setRawAdj >= ProcessList.CACHED_APP_MIN_ADJ;
+        if (wasCached != host.cached || host.curRawAdj == ProcessList.UNKNOWN_ADJ) {
+            return false;
+        }
+        final boolean changed = host.curAdj != host.setAdj
+                || host.curProcState != host.setProcState
+                || host.curSchedGroup != host.setSchedGroup;
+        applyReachableOomAdjLocked(host, now);
+        if (changed) {
+            queue.add(host);
+        }
+        return true;
+    }
+
+    @VisibleForTesting
+    void computeReachableOomAdjLocked(ProcessRecord host, ProcessRecord TOP_APP, long now) {
+        final int cachedAdj = host.curRawAdj >= ProcessList.CACHED_APP_MIN_ADJ
+                ? host.curRawAdj : ProcessList.UNKNOWN_ADJ;
+        computeOomAdjLocked(host, cachedAdj, TOP_APP, false, now);
+    }
+
+    @VisibleForTesting
+    void applyReachableOomAdjLocked(ProcessRecord host, long now) {
+        applyOomAdjLocked(host, false, now, SystemClock.elapsedRealtime());
+    }
+
     final void updateOomAdjLocked() {
         final ActivityRecord TOP_ACT = resumedAppLocked();
         final ProcessRecord TOP_APP = TOP_ACT != null ? TOP_ACT.app : null;
@@ -22804,6 +22934,7 @@ public class ActivityManagerService extends IActivityManager.Stub
                 }
                 uidRec.setProcState = uidRec.curProcState;
                 uidRec.setWhitelist = uidRec.curWhitelist;
+                publishUidStateLocked(uidRec);
                 enqueueUidChangeLocked(uidRec, -1, uidChange);
                 noteUidProcessState(uidRec.uid, uidRec.curProcState);
                 if (uidRec.foregroundServices) {
@@ -22878,6 +23009,7 @@ public class ActivityManagerService extends IActivityManager.Stub
                                     userId == UserHandle.getUserId(uidRec.uid)) {
                                 EventLogTags.writeAmUidIdle(uidRec.uid);
                                 uidRec.idle = true;
+                                publishUidStateLocked(uidRec);
                                 Slog.w(TAG, "Idling uid " + UserHandle.formatUid(uidRec.uid)
                                         + " from package " + packageName + " user " + userId);
                                 doStopUidLocked(uidRec.uid, uidRec);
@@ -22913,6 +23045,7 @@ public class ActivityManagerService extends IActivityManager.Stub
                     if (bgTime <= maxBgTime) {
                         EventLogTags.writeAmUidIdle(uidRec.uid);
                         uidRec.idle = true;
+                        publishUidStateLocked(uidRec);
                         doStopUidLocked(uidRec.uid, uidRec);
                     } else {
                         if (nextTime == 0 || nextTime > bgTime) {
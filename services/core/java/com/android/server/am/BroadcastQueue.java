@@ -128,6 +128,27 @@ public final class BroadcastQueue {
     final long[] mSummaryHistoryDispatchTime = new  long[MAX_BROADCAST_SUMMARY_HISTORY];
     final long[] mSummaryHistoryFinishTime = new  long[MAX_BROADCAST_SUMMARY_HISTORY];
 
+    /**
+     * Upper bounds, in milliseconds, of the buckets of the latency histograms below.  The
+     * last bucket of each histogram counts everything above the largest bound.
+     */
+    static final long[] LATENCY_BUCKETS_MS = { 10, 50, 100, 250, 500, 1000, 2500, 5000, 10000 };
+
+    static final int LATENCY_PARALLEL = 0;
+    static final int LATENCY_ORDERED = 1;
+
+    /**
+     * Histograms of the time between enqueueing and dispatching a broadcast, indexed by
+     * {@link #LATENCY_PARALLEL} or {@link #LATENCY_ORDERED} and then by bucket.
+     */
+    final long[][] mDispatchLatencyHistogram = new long[2][LATENCY_BUCKETS_MS.length + 1];
+
+    /**
+     * Histograms of the time between dispatching a broadcast and its delivery to all
+     * receivers being finished, indexed like {@link #mDispatchLatencyHistogram}.
+     */
+    final long[][] mFinishLatencyHistogram = new long[2][LATENCY_BUCKETS_MS.length + 1];
+
     /**
      * Set when we current have a BROADCAST_INTENT_MSG in flight.
      */
@@ -228,6 +249,7 @@ public final class BroadcastQueue {
      */
     private void enqueueBroadcastHelper(BroadcastRecord r) {
         r.enqueueClockTime = System.currentTimeMillis();
+        r.enqueueTime = SystemClock.uptimeMillis();
 
         if (Trace.isTagEnabled(Trace.TRACE_TAG_ACTIVITY_MANAGER)) {
             Trace.asyncTraceBegin(Trace.TRACE_TAG_ACTIVITY_MANAGER,
@@ -1525,9 +1547,43 @@ public final class BroadcastQueue {
         mSummaryHistoryEnqueueTime[mSummaryHistoryNext] = r.enqueueClockTime;
         mSummaryHistoryDispatchTime[mSummaryHistoryNext] = r.dispatchClockTime;
         mSummaryHistoryFinishTime[mSummaryHistoryNext] = System.currentTimeMillis();
+
+        // Latencies use uptime, which unlike the clock times above can't jump backwards.
+        // Broadcasts that were never dispatched have no latency to record.
+        if (r.dispatchTime > 0) {
+            final int type = r.ordered ? LATENCY_ORDERED : LATENCY_PARALLEL;
+            if (r.enqueueTime > 0) {
+                addLatencySample(mDispatchLatencyHistogram[type],
+                        r.dispatchTime - r.enqueueTime);
+            }
+            addLatencySample(mFinishLatencyHistogram[type], r.finishTime - r.dispatchTime);
+        }
+
         mSummaryHistoryNext = ringAdvance(mSummaryHistoryNext, 1, MAX_BROADCAST_SUMMARY_HISTORY);
     }
 
+    private static void addLatencySample(long[] histogram, long latencyMs) {
+        if (latencyMs < 0) {
+            // Should not happen with uptime stamps; don't let it skew the histogram.
+            return;
+        }
+        int bucket = 0;
+        while (bucket < LATENCY_BUCKETS_MS.length && latencyMs > LATENCY_BUCKETS_MS[bucket]) {
+            bucket++;
+        }
+        histogram[bucket]++;
+    }
+
+    private static void dumpLatencyHistogram(PrintWriter pw, String label, long[] histogram) {
+        pw.print("    "); pw.print(label); pw.print(":");
+        for (int i = 0; i < histogram.length; i++) {
+            pw.print(i < LATENCY_BUCKETS_MS.length ? " <=" : " >");
+            pw.print(LATENCY_BUCKETS_MS[Math.min(i, LATENCY_BUCKETS_MS.length - 1)]);
+            pw.print("ms="); pw.print(histogram[i]);
+        }
+        pw.println();
+    }
+
     boolean cleanupDisabledPackageReceiversLocked(
             String packageName, Set<String> filterByClasses, int userId, boolean doit) {
         boolean didSomething = false;
@@ -1747,6 +1803,20 @@ public final class BroadcastQueue {
                     pw.print("    extras: "); pw.println(bundle.toString());
                 }
             } while (ringIndex != lastIndex);
+
+            if (needSep) {
+                pw.println();
+            }
+            needSep = true;
+            pw.println("  Broadcast latency [" + mQueueName + "]:");
+            dumpLatencyHistogram(pw, "parallel dispatch",
+                    mDispatchLatencyHistogram[LATENCY_PARALLEL]);
+            dumpLatencyHistogram(pw, "parallel finish",
+                    mFinishLatencyHistogram[LATENCY_PARALLEL]);
+            dumpLatencyHistogram(pw, "ordered dispatch",
+                    mDispatchLatencyHistogram[LATENCY_ORDERED]);
+            dumpLatencyHistogram(pw, "ordered finish",
+                    mFinishLatencyHistogram[LATENCY_ORDERED]);
         }
 
         return needSep;
@@ -1259,6 +1259,8 @@ public final class ContentService extends IContentService.Stub {
 
         private String mName;
         private ArrayList<ObserverNode> mChildren = new ArrayList<ObserverNode>();
+        /** {@link #mChildren} keyed by segment name, so walking a Uri path is O(depth). */
+        private final ArrayMap<String, ObserverNode> mChildrenByName = new ArrayMap<>();
         private ArrayList<ObserverEntry> mObservers = new ArrayList<ObserverEntry>();
 
         public ObserverNode(String name) {
@@ -1338,19 +1340,13 @@ public final class ContentService extends IContentService.Stub {
             if (segment == null) {
                 throw new IllegalArgumentException("Invalid Uri (" + uri + ") used for observer");
             }
-            int N = mChildren.size();
-            for (int i = 0; i < N; i++) {
-                ObserverNode node = mChildren.get(i);
-                if (node.mName.equals(segment)) {
-                    node.addObserverLocked(uri, index + 1, observer, notifyForDescendants,
-                            observersLock, uid, pid, userHandle);
-                    return;
-                }
+            ObserverNode node = mChildrenByName.get(segment);
+            if (node == null) {
+                // No child found, create one
+                node = new ObserverNode(segment);
+                mChildren.add(node);
+                mChildrenByName.put(segment, node);
             }
-
-            // No child found, create one
-            ObserverNode node = new ObserverNode(segment);
-            mChildren.add(node);
             node.addObserverLocked(uri, index + 1, observer, notifyForDescendants,
                     observersLock, uid, pid, userHandle);
         }
@@ -1360,7 +1356,7 @@ public final class ContentService extends IContentService.Stub {
             for (int i = 0; i < size; i++) {
                 boolean empty = mChildren.get(i).removeObserverLocked(observer);
                 if (empty) {
-                    mChildren.remove(i);
+                    mChildrenByName.remove(mChildren.remove(i).mName);
                     i--;
                     size--;
                 }
@@ -1454,16 +1450,18 @@ public final class ContentService extends IContentService.Stub {
                         flags, targetUserHandle, calls);
             }
 
-            int N = mChildren.size();
-            for (int i = 0; i < N; i++) {
-                ObserverNode node = mChildren.get(i);
-                if (segment == null || node.mName.equals(segment)) {
+            if (segment != null) {
+                final ObserverNode node = mChildrenByName.get(segment);
+                if (node != null) {
                     // We found the child,
                     node.collectObserversLocked(uri, index + 1, observer,
                             observerWantsSelfNotifications, flags, targetUserHandle, calls);
-                    if (segment != null) {
-                        break;
-                    }
+                }
+            } else {
+                int N = mChildren.size();
+                for (int i = 0; i < N; i++) {
+                    mChildren.get(i).collectObserversLocked(uri, index + 1, observer,
+                            observerWantsSelfNotifications, flags, targetUserHandle, calls);
                 }
             }
         }
@@ -77,11 +77,14 @@ public final class JobStore {
     final Context mContext;
 
     private int mDirtyOperations;
+    /** Whether a write has been posted that hasn't yet taken its snapshot of the jobs. */
+    private boolean mWriteScheduled;
 
     private static final Object sSingletonLock = new Object();
     private final AtomicFile mJobsFile;
     /** Handler backed by IoThread for writing to disk. */
     private final Handler mIoHandler = IoThread.getHandler();
+    private final Runnable mWriteRunnable = new WriteJobsMapToDiskRunnable();
     private static JobStore sSingleton;
 
     /** Used by the {@link JobSchedulerService} to instantiate the JobStore. */
@@ -240,17 +243,19 @@ public final class JobStore {
 
     /**
      * Every time the state changes we write all the jobs in one swath, instead of trying to
-     * track incremental changes.
+     * track incremental changes. Changes that arrive while a write is still queued are folded
+     * into that write, since it snapshots the jobs only once it starts running.
      * @return Whether the operation was successful. This will only fail for e.g. if the system is
      * low on storage. If this happens, we continue as normal
      */
     private void maybeWriteStatusToDiskAsync() {
         mDirtyOperations++;
-        if (mDirtyOperations >= MAX_OPS_BEFORE_WRITE) {
+        if (mDirtyOperations >= MAX_OPS_BEFORE_WRITE && !mWriteScheduled) {
             if (DEBUG) {
                 Slog.v(TAG, "Writing jobs to disk.");
             }
-            mIoHandler.post(new WriteJobsMapToDiskRunnable());
+            mWriteScheduled = true;
+            mIoHandler.post(mWriteRunnable);
         }
     }
 
@@ -269,6 +274,9 @@ public final class JobStore {
             final long startElapsed = SystemClock.elapsedRealtime();
             final List<JobStatus> storeCopy = new ArrayList<JobStatus>();
             synchronized (mLock) {
+                // Any change from here on needs another write.
+                mWriteScheduled = false;
+                mDirtyOperations = 0;
                 // Clone the jobs so we can release the lock before writing.
                 mJobSet.forEachJob(new JobStatusFunctor() {
                     @Override
@@ -313,9 +321,8 @@ public final class JobStore {
 
                 // Write out to disk in one fell sweep.
                 FileOutputStream fos = mJobsFile.startWrite();
-                fos.write(baos.toByteArray());
+                baos.writeTo(fos);
                 mJobsFile.finishWrite(fos);
-                mDirtyOperations = 0;
             } catch (IOException e) {
                 if (DEBUG) {
                     Slog.v(TAG, "Error writing out job data.", e);
@@ -498,7 +505,9 @@ public final class JobStore {
             while (eventType != XmlPullParser.START_TAG &&
                     eventType != XmlPullParser.END_DOCUMENT) {
                 eventType = parser.next();
-                Slog.d(TAG, "Start tag: " + parser.getName());
+                if (DEBUG) {
+                    Slog.d(TAG, "Start tag: " + parser.getName());
+                }
             }
             if (eventType == XmlPullParser.END_DOCUMENT) {
                 if (DEBUG) {
@@ -82,6 +82,8 @@ public class NetworkStatsRecorder {
 
     private long mPersistThresholdBytes = 2 * MB_IN_BYTES;
     private NetworkStats mLastSnapshot;
+    /** Reused as the result of {@link NetworkStats#subtract} across snapshots. */
+    private NetworkStats mDeltaBuffer;
 
     private final NetworkStatsCollection mPending;
     private final NetworkStatsCollection mSinceBoot;
@@ -225,7 +227,8 @@ public class NetworkStatsRecorder {
         final NetworkStatsCollection complete = mComplete != null ? mComplete.get() : null;
 
         final NetworkStats delta = NetworkStats.subtract(
-                snapshot, mLastSnapshot, mObserver, mCookie);
+                snapshot, mLastSnapshot, mObserver, mCookie, mDeltaBuffer);
+        mDeltaBuffer = delta;
         final long end = currentTimeMillis;
         final long start = end - delta.getElapsedRealtime();
 
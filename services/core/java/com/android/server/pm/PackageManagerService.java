@@ -594,7 +594,7 @@ public class PackageManagerService extends IPackageManager.Stub
      * Version number for the package parser cache. Increment this whenever the format or
      * extent of cached data changes. See {@code PackageParser#setCacheDir}.
      */
-    private static final String PACKAGE_PARSER_CACHE_VERSION = "1";
+    private static final String PACKAGE_PARSER_CACHE_VERSION = "2";
 
     /**
      * Whether the package parser cache is enabled.
@@ -1719,10 +1719,18 @@ public class PackageManagerService extends IPackageManager.Stub
                 } break;
                 case WRITE_SETTINGS: {
                     Process.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+                    final Settings.SerializedSettings settings;
                     synchronized (mPackages) {
                         removeMessages(WRITE_SETTINGS);
                         removeMessages(WRITE_PACKAGE_RESTRICTIONS);
-                        mSettings.writeLPr();
+                        settings = mSettings.serializeSettingsLPr();
+                    }
+                    // Write packages.xml without holding mPackages.
+                    final boolean written = settings != null && mSettings.writeSettings(settings);
+                    synchronized (mPackages) {
+                        if (written) {
+                            mSettings.writeDerivedSettingsLPr();
+                        }
                         mDirtyUsers.clear();
                     }
                     Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
@@ -8666,8 +8674,8 @@ public class PackageManagerService extends IPackageManager.Stub
                 mSeparateProcesses, mOnlyCore, mMetrics, mCacheDir,
                 mParallelPackageParserCallback);
 
-        // Submit files for parsing in parallel
-        int fileCount = 0;
+        // Submit files for parsing in parallel, largest packages first
+        final List<File> packageFiles = new ArrayList<>(files.length);
         for (File file : files) {
             final boolean isPackage = (isApkFile(file) || file.isDirectory())
                     && !PackageInstallerService.isStageName(file.getName());
@@ -8675,9 +8683,9 @@ public class PackageManagerService extends IPackageManager.Stub
                 // Ignore entries which are not packages
                 continue;
             }
-            parallelPackageParser.submit(file, parseFlags);
-            fileCount++;
+            packageFiles.add(file);
         }
+        int fileCount = parallelPackageParser.submitAll(packageFiles, parseFlags);
 
         // Process results one by one
         for (; fileCount > 0; fileCount--) {
@@ -8833,6 +8841,7 @@ public class PackageManagerService extends IPackageManager.Stub
         pp.setSeparateProcesses(mSeparateProcesses);
         pp.setOnlyCoreApps(mOnlyCore);
         pp.setDisplayMetrics(mMetrics);
+        pp.setCacheDir(mCacheDir);
         pp.setCallback(mPackageParserCallback);
 
         if ((scanFlags & SCAN_TRUSTED_OVERLAY) != 0) {
@@ -8842,7 +8851,7 @@ public class PackageManagerService extends IPackageManager.Stub
         Trace.traceBegin(TRACE_TAG_PACKAGE_MANAGER, "parsePackage");
         final PackageParser.Package pkg;
         try {
-            pkg = pp.parsePackage(scanFile, parseFlags);
+            pkg = pp.parsePackage(scanFile, parseFlags, true /* useCaches */);
         } catch (PackageParserException e) {
             throw PackageManagerException.from(e);
         } finally {
@@ -18,29 +18,40 @@ package com.android.server.pm;
 
 import android.content.pm.PackageParser;
 import android.os.Process;
+import android.os.SystemClock;
 import android.os.Trace;
 import android.util.DisplayMetrics;
+import android.util.Slog;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.util.ConcurrentUtils;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import static android.os.Trace.TRACE_TAG_PACKAGE_MANAGER;
 
 /**
  * Helper class for parallel parsing of packages using {@link PackageParser}.
- * <p>Parsing requests are processed by a thread-pool of {@link #MAX_THREADS}.
- * At any time, at most {@link #QUEUE_CAPACITY} results are kept in RAM</p>
+ * <p>Parsing requests are processed by a thread-pool sized to the number of available cores
+ * (capped at {@link #MAX_THREADS}). Idle threads pull the next pending request from a shared
+ * queue, so submitting the largest packages first (see {@link #submitAll}) keeps all threads
+ * busy until the end of the scan. Results are streamed to the consumer through an unbounded
+ * queue, so parsing threads never block on a slow consumer.</p>
  */
 class ParallelPackageParser implements AutoCloseable {
 
-    private static final int QUEUE_CAPACITY = 10;
-    private static final int MAX_THREADS = 4;
+    private static final String TAG = "ParallelPackageParser";
+
+    private static final int MAX_THREADS = 8;
+
+    /** Parse times above this threshold are logged */
+    private static final long SLOW_PARSE_THRESHOLD_MS = 100;
 
     private final String[] mSeparateProcesses;
     private final boolean mOnlyCore;
@@ -49,10 +60,10 @@ class ParallelPackageParser implements AutoCloseable {
     private final PackageParser.Callback mPackageParserCallback;
     private volatile String mInterruptedInThread;
 
-    private final BlockingQueue<ParseResult> mQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final BlockingQueue<ParseResult> mQueue = new LinkedBlockingQueue<>();
 
-    private final ExecutorService mService = ConcurrentUtils.newFixedThreadPool(MAX_THREADS,
-            "package-parsing-thread", Process.THREAD_PRIORITY_FOREGROUND);
+    private final ExecutorService mService = ConcurrentUtils.newFixedThreadPool(
+            getThreadCount(), "package-parsing-thread", Process.THREAD_PRIORITY_FOREGROUND);
 
     ParallelPackageParser(String[] separateProcesses, boolean onlyCoreApps,
             DisplayMetrics metrics, File cacheDir, PackageParser.Callback callback) {
@@ -68,6 +79,7 @@ class ParallelPackageParser implements AutoCloseable {
         PackageParser.Package pkg; // Parsed package
         File scanFile; // File that was parsed
         Throwable throwable; // Set if an error occurs during parsing
+        long parseTimeMillis; // Time spent parsing scanFile
 
         @Override
         public String toString() {
@@ -75,10 +87,60 @@ class ParallelPackageParser implements AutoCloseable {
                     "pkg=" + pkg +
                     ", scanFile=" + scanFile +
                     ", throwable=" + throwable +
+                    ", parseTimeMillis=" + parseTimeMillis +
                     '}';
         }
     }
 
+    @VisibleForTesting
+    static int getThreadCount() {
+        return Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Returns the on-disk size of a package, which is used as an estimate of its parsing cost.
+     * For cluster packages, the sizes of all APKs in the directory are summed.
+     */
+    @VisibleForTesting
+    static long getPackageSize(File scanFile) {
+        if (!scanFile.isDirectory()) {
+            return scanFile.length();
+        }
+        final File[] files = scanFile.listFiles();
+        long size = 0;
+        if (files != null) {
+            for (File file : files) {
+                if (PackageParser.isApkFile(file)) {
+                    size += file.length();
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Submits all files for parsing, largest first, so that long-running parses are started
+     * early and do not end up as stragglers at the tail of the scan.
+     * @param scanFiles files to scan
+     * @param parseFlags parse flags
+     * @return number of submitted files
+     */
+    public int submitAll(List<File> scanFiles, int parseFlags) {
+        final int count = scanFiles.size();
+        final File[] files = scanFiles.toArray(new File[count]);
+        final long[] sizes = new long[count];
+        final Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            sizes[i] = getPackageSize(files[i]);
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong((Integer i) -> sizes[i]).reversed());
+        for (int i = 0; i < count; i++) {
+            submit(files[order[i]], parseFlags);
+        }
+        return count;
+    }
+
     /**
      * Take the parsed package from the parsing queue, waiting if necessary until the element
      * appears in the queue.
@@ -105,6 +167,7 @@ class ParallelPackageParser implements AutoCloseable {
     public void submit(File scanFile, int parseFlags) {
         mService.submit(() -> {
             ParseResult pr = new ParseResult();
+            final long startTime = SystemClock.uptimeMillis();
             Trace.traceBegin(TRACE_TAG_PACKAGE_MANAGER, "parallel parsePackage [" + scanFile + "]");
             try {
                 PackageParser pp = new PackageParser();
@@ -120,6 +183,10 @@ class ParallelPackageParser implements AutoCloseable {
             } finally {
                 Trace.traceEnd(TRACE_TAG_PACKAGE_MANAGER);
             }
+            pr.parseTimeMillis = SystemClock.uptimeMillis() - startTime;
+            if (pr.parseTimeMillis > SLOW_PARSE_THRESHOLD_MS) {
+                Slog.i(TAG, "Parsing " + scanFile + " took " + pr.parseTimeMillis + "ms");
+            }
             try {
                 mQueue.put(pr);
             } catch (InterruptedException e) {
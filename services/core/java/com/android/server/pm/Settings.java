@@ -101,6 +101,7 @@ import org.xmlpull.v1.XmlSerializer;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -111,6 +112,8 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -256,6 +259,21 @@ final class Settings {
 
     private final File mSettingsFilename;
     private final File mBackupSettingsFilename;
+    /**
+     * Guards the rewrite of {@link #mSettingsFilename}, which may happen without the package
+     * lock held. Must never be held while acquiring the package lock.
+     */
+    private final Object mSettingsWriteLock = new Object();
+    /** Sequence number of the last serialization of the settings, guarded by the package lock */
+    private long mSettingsSerializeSeq;
+    /** Sequence number of the settings last written to disk */
+    @GuardedBy("mSettingsWriteLock")
+    private long mSettingsWriteSeq;
+    /** SHA-256 digest of the last successful write of {@link #mSettingsFilename} */
+    @GuardedBy("mSettingsWriteLock")
+    private byte[] mLastWrittenSettingsDigest;
+    /** Size in bytes of the last successful write of {@link #mSettingsFilename} */
+    private volatile int mLastWrittenSettingsSize;
     private final File mPackageListFilename;
     private final File mStoppedPackagesFilename;
     private final File mBackupStoppedPackagesFilename;
@@ -2440,34 +2458,44 @@ final class Settings {
         }
     }
 
+    /**
+     * Settings serialized by {@link #serializeSettingsLPr()}, ready to be written to disk by
+     * {@link #writeSettings(SerializedSettings)}.
+     */
+    static final class SerializedSettings {
+        final byte[] data;
+        final long seq;
+
+        SerializedSettings(byte[] data, long seq) {
+            this.data = data;
+            this.seq = seq;
+        }
+    }
+
     void writeLPr() {
         //Debug.startMethodTracing("/data/system/packageprof", 8 * 1024 * 1024);
 
-        // Keep the old settings around until we know the new ones have
-        // been successfully written.
-        if (mSettingsFilename.exists()) {
-            // Presence of backup settings file indicates that we failed
-            // to persist settings earlier. So preserve the older
-            // backup for future reference since the current settings
-            // might have been corrupted.
-            if (!mBackupSettingsFilename.exists()) {
-                if (!mSettingsFilename.renameTo(mBackupSettingsFilename)) {
-                    Slog.wtf(PackageManagerService.TAG,
-                            "Unable to backup package manager settings, "
-                            + " current changes will be lost at reboot");
-                    return;
-                }
-            } else {
-                mSettingsFilename.delete();
-                Slog.w(PackageManagerService.TAG, "Preserving older settings backup");
-            }
+        final SerializedSettings settings = serializeSettingsLPr();
+        if (settings != null && writeSettings(settings)) {
+            writeDerivedSettingsLPr();
         }
 
+        //Debug.stopMethodTracing();
+    }
+
+    /**
+     * Serializes packages.xml into memory. Only this step needs the package lock; the result
+     * can be written to disk with {@link #writeSettings(SerializedSettings)} after the lock
+     * has been released.
+     *
+     * @return the serialized settings, or {@code null} if serialization failed
+     */
+    SerializedSettings serializeSettingsLPr() {
         mPastSignatures.clear();
 
         try {
-            FileOutputStream fstr = new FileOutputStream(mSettingsFilename);
-            BufferedOutputStream str = new BufferedOutputStream(fstr);
+            ByteArrayOutputStream str = new ByteArrayOutputStream(
+                    Math.max(mLastWrittenSettingsSize, 64 * 1024));
 
             //XmlSerializer serializer = XmlUtils.serializerInstance();
             XmlSerializer serializer = new FastXmlSerializer();
@@ -2576,23 +2604,7 @@ final class Settings {
 
             serializer.endDocument();
 
-            str.flush();
-            FileUtils.sync(fstr);
-            str.close();
-
-            // New settings successfully written, old ones are no longer
-            // needed.
-            mBackupSettingsFilename.delete();
-            FileUtils.setPermissions(mSettingsFilename.toString(),
-                    FileUtils.S_IRUSR|FileUtils.S_IWUSR
-                    |FileUtils.S_IRGRP|FileUtils.S_IWGRP,
-                    -1, -1);
-
-            writeKernelMappingLPr();
-            writePackageListLPr();
-            writeAllUsersPackageRestrictionsLPr();
-            writeAllRuntimePermissionsLPr();
-            return;
+            return new SerializedSettings(str.toByteArray(), ++mSettingsSerializeSeq);
 
         } catch(XmlPullParserException e) {
             Slog.wtf(PackageManagerService.TAG, "Unable to write package manager settings, "
@@ -2601,14 +2613,110 @@ final class Settings {
             Slog.wtf(PackageManagerService.TAG, "Unable to write package manager settings, "
                     + "current changes will be lost at reboot", e);
         }
-        // Clean up partially written files
-        if (mSettingsFilename.exists()) {
-            if (!mSettingsFilename.delete()) {
-                Slog.wtf(PackageManagerService.TAG, "Failed to clean up mangled file: "
-                        + mSettingsFilename);
+        return null;
+    }
+
+    /**
+     * Writes settings serialized by {@link #serializeSettingsLPr()} to packages.xml. Does not
+     * need the package lock. The file is left untouched when its contents did not change
+     * since the last successful write, or when newer settings have already been written.
+     *
+     * @return {@code false} if the settings could not be written
+     */
+    boolean writeSettings(SerializedSettings settings) {
+        synchronized (mSettingsWriteLock) {
+            if (settings.seq <= mSettingsWriteSeq) {
+                // Settings serialized later have already been written.
+                return true;
+            }
+            // Set once mSettingsFilename starts being rewritten, and cleared once that write
+            // has completed. Only then may a failure leave a partially written file behind.
+            boolean writingSettings = false;
+            try {
+                final byte[] data = settings.data;
+                final byte[] digest = computeSettingsDigest(data);
+                // Skip the disk write if nothing changed since the last successful write.
+                final boolean unchanged = digest != null && mLastWrittenSettingsDigest != null
+                        && data.length == mLastWrittenSettingsSize
+                        && MessageDigest.isEqual(digest, mLastWrittenSettingsDigest)
+                        && mSettingsFilename.exists() && !mBackupSettingsFilename.exists();
+                if (!unchanged) {
+                    // Keep the old settings around until we know the new ones have
+                    // been successfully written.
+                    if (mSettingsFilename.exists()) {
+                        // Presence of backup settings file indicates that we failed
+                        // to persist settings earlier. So preserve the older
+                        // backup for future reference since the current settings
+                        // might have been corrupted.
+                        if (!mBackupSettingsFilename.exists()) {
+                            if (!mSettingsFilename.renameTo(mBackupSettingsFilename)) {
+                                Slog.wtf(PackageManagerService.TAG,
+                                        "Unable to backup package manager settings, "
+                                        + " current changes will be lost at reboot");
+                                return false;
+                            }
+                        } else {
+                            mSettingsFilename.delete();
+                            Slog.w(PackageManagerService.TAG,
+                                    "Preserving older settings backup");
+                        }
+                    }
+
+                    mLastWrittenSettingsDigest = null;
+                    writingSettings = true;
+                    FileOutputStream fstr = new FileOutputStream(mSettingsFilename);
+                    fstr.write(data);
+                    FileUtils.sync(fstr);
+                    fstr.close();
+                    writingSettings = false;
+
+                    // New settings successfully written, old ones are no longer
+                    // needed.
+                    mBackupSettingsFilename.delete();
+                    FileUtils.setPermissions(mSettingsFilename.toString(),
+                            FileUtils.S_IRUSR|FileUtils.S_IWUSR
+                            |FileUtils.S_IRGRP|FileUtils.S_IWGRP,
+                            -1, -1);
+                    mLastWrittenSettingsDigest = digest;
+                    mLastWrittenSettingsSize = data.length;
+                }
+                mSettingsWriteSeq = settings.seq;
+                return true;
+
+            } catch(java.io.IOException e) {
+                Slog.wtf(PackageManagerService.TAG, "Unable to write package manager settings, "
+                        + "current changes will be lost at reboot", e);
+            }
+            // Clean up partially written files. If the failure happened before the write
+            // started, mSettingsFilename is still the only copy of the settings.
+            if (writingSettings && mSettingsFilename.exists()) {
+                if (!mSettingsFilename.delete()) {
+                    Slog.wtf(PackageManagerService.TAG, "Failed to clean up mangled file: "
+                            + mSettingsFilename);
+                }
             }
+            return false;
+        }
+    }
+
+    /**
+     * Writes the files derived from the package settings, once packages.xml has been
+     * written by {@link #writeSettings(SerializedSettings)}.
+     */
+    void writeDerivedSettingsLPr() {
+        writeKernelMappingLPr();
+        writePackageListLPr();
+        writeAllUsersPackageRestrictionsLPr();
+        writeAllRuntimePermissionsLPr();
+    }
+
+    private static byte[] computeSettingsDigest(byte[] settings) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(settings);
+        } catch (NoSuchAlgorithmException e) {
+            Slog.w(PackageManagerService.TAG, "Unable to digest package manager settings", e);
+            return null;
         }
-        //Debug.stopMethodTracing();
     }
 
     private void writeKernelRemoveUserLPr(int userId) {
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server;
+
+import static android.app.AppOpsManager.MODE_ALLOWED;
+import static android.app.AppOpsManager.MODE_ERRORED;
+import static android.app.AppOpsManager.MODE_IGNORED;
+import static android.app.AppOpsManager.OP_CAMERA;
+import static android.app.AppOpsManager.OP_COARSE_LOCATION;
+import static android.app.AppOpsManager.OP_READ_CONTACTS;
+import static android.app.AppOpsManager.OP_WAKE_LOCK;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import android.app.AppOpsManager;
+import android.content.Context;
+import android.os.Binder;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.UserHandle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Tests that the lock-free answers of {@link AppOpsService#checkOperation} match the locked
+ * path, and that the persisted state reads back as it was written.
+ *
+ * Build/Install/Run:
+ *  bit FrameworksServicesTests:com.android.server.AppOpsServiceTest
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class AppOpsServiceTest {
+    private static final String TAG = AppOpsServiceTest.class.getSimpleName();
+    private static final String OTHER_PACKAGE = "com.android.server.appops.other";
+    private static final long RUNNING_OP_MILLIS = 20;
+
+    private File mAppOpsFile;
+    private HandlerThread mHandlerThread;
+    private AppOpsService mAppOpsService;
+    private String mMyPackageName;
+    private int mMyUid;
+    private int mMyUserId;
+
+    @Before
+    public void setUp() {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        mAppOpsFile = new File(context.getFilesDir(), "appops.xml");
+        mAppOpsFile.delete();
+        mHandlerThread = new HandlerThread(TAG);
+        mHandlerThread.start();
+        mAppOpsService = createAppOpsService();
+        mMyPackageName = context.getPackageName();
+        mMyUid = Process.myUid();
+        mMyUserId = UserHandle.getUserId(mMyUid);
+    }
+
+    @After
+    public void tearDown() {
+        mHandlerThread.quitSafely();
+        mAppOpsFile.delete();
+    }
+
+    @Test
+    public void testUidModes() {
+        assertMode(MODE_ALLOWED, OP_COARSE_LOCATION, mMyUid, mMyPackageName);
+
+        mAppOpsService.setUidMode(OP_COARSE_LOCATION, mMyUid, MODE_IGNORED);
+        assertMode(MODE_IGNORED, OP_COARSE_LOCATION, mMyUid, mMyPackageName);
+        assertMode(MODE_IGNORED, OP_COARSE_LOCATION, mMyUid, OTHER_PACKAGE);
+
+        mAppOpsService.setUidMode(OP_COARSE_LOCATION, mMyUid,
+                AppOpsManager.opToDefaultMode(OP_COARSE_LOCATION));
+        assertMode(MODE_ALLOWED, OP_COARSE_LOCATION, mMyUid, mMyPackageName);
+    }
+
+    @Test
+    public void testPackageModes() {
+        mAppOpsService.setMode(OP_CAMERA, mMyUid, mMyPackageName, MODE_ERRORED);
+        assertMode(MODE_ERRORED, OP_CAMERA, mMyUid, mMyPackageName);
+        assertMode(AppOpsManager.opToDefaultMode(OP_CAMERA), OP_CAMERA, mMyUid, OTHER_PACKAGE);
+        assertMode(AppOpsManager.opToDefaultMode(OP_COARSE_LOCATION), OP_COARSE_LOCATION,
+                mMyUid, mMyPackageName);
+
+        // A uid mode takes precedence over the package mode.
+        mAppOpsService.setUidMode(OP_CAMERA, mMyUid, MODE_IGNORED);
+        assertMode(MODE_IGNORED, OP_CAMERA, mMyUid, mMyPackageName);
+        mAppOpsService.setUidMode(OP_CAMERA, mMyUid, AppOpsManager.opToDefaultMode(OP_CAMERA));
+        assertMode(MODE_ERRORED, OP_CAMERA, mMyUid, mMyPackageName);
+
+        mAppOpsService.setMode(OP_CAMERA, mMyUid, mMyPackageName, MODE_ALLOWED);
+        assertMode(MODE_ALLOWED, OP_CAMERA, mMyUid, mMyPackageName);
+    }
+
+    @Test
+    public void testUserRestrictionWithExcludedPackages() {
+        final IBinder token = new Binder();
+        mAppOpsService.setMode(OP_CAMERA, mMyUid, mMyPackageName, MODE_ERRORED);
+
+        mAppOpsService.setUserRestriction(OP_CAMERA, true, token, mMyUserId,
+                new String[] { OTHER_PACKAGE });
+        assertMode(MODE_IGNORED, OP_CAMERA, mMyUid, mMyPackageName);
+
+        mAppOpsService.setUserRestriction(OP_CAMERA, true, token, mMyUserId,
+                new String[] { mMyPackageName });
+        assertMode(MODE_ERRORED, OP_CAMERA, mMyUid, mMyPackageName);
+        assertMode(MODE_IGNORED, OP_CAMERA, mMyUid, OTHER_PACKAGE);
+
+        mAppOpsService.setUserRestriction(OP_CAMERA, false, token, mMyUserId, null);
+        assertMode(MODE_ERRORED, OP_CAMERA, mMyUid, mMyPackageName);
+        assertMode(AppOpsManager.opToDefaultMode(OP_CAMERA), OP_CAMERA, mMyUid, OTHER_PACKAGE);
+    }
+
+    @Test
+    public void testUserRestrictionPrivilegedBypass() {
+        final IBinder token = new Binder();
+        final int systemUserId = UserHandle.getUserId(Process.SYSTEM_UID);
+        mAppOpsService.setUserRestriction(OP_COARSE_LOCATION, true, token, systemUserId, null);
+
+        // The platform package is privileged, so it bypasses restrictions of this op.
+        assertMode(AppOpsManager.opToDefaultMode(OP_COARSE_LOCATION), OP_COARSE_LOCATION,
+                Process.SYSTEM_UID, "android");
+        if (mMyUserId == systemUserId) {
+            assertMode(MODE_IGNORED, OP_COARSE_LOCATION, mMyUid, mMyPackageName);
+        }
+
+        mAppOpsService.setUserRestriction(OP_COARSE_LOCATION, false, token, systemUserId, null);
+        assertMode(AppOpsManager.opToDefaultMode(OP_COARSE_LOCATION), OP_COARSE_LOCATION,
+                mMyUid, mMyPackageName);
+    }
+
+    @Test
+    public void testWriteReadState() {
+        mAppOpsService.setUidMode(OP_COARSE_LOCATION, mMyUid, MODE_IGNORED);
+        mAppOpsService.setMode(OP_CAMERA, mMyUid, mMyPackageName, MODE_ERRORED);
+        final IBinder token = mAppOpsService.getToken(new Binder());
+        assertEquals(MODE_ALLOWED, mAppOpsService.startOperation(token, OP_WAKE_LOCK, mMyUid,
+                mMyPackageName));
+        assertEquals(MODE_ALLOWED, mAppOpsService.noteProxyOperation(OP_READ_CONTACTS,
+                mMyPackageName, Process.SYSTEM_UID, "android"));
+        SystemClock.sleep(RUNNING_OP_MILLIS);
+        final AppOpsManager.OpEntry running = getOp(mAppOpsService, OP_WAKE_LOCK, mMyUid,
+                mMyPackageName);
+        final AppOpsManager.OpEntry proxied = getOp(mAppOpsService, OP_READ_CONTACTS,
+                Process.SYSTEM_UID, "android");
+
+        mAppOpsService.writeState();
+        final AppOpsService readService = createAppOpsService();
+
+        // Uid modes.
+        assertEquals(MODE_IGNORED,
+                readService.checkOperation(OP_COARSE_LOCATION, mMyUid, mMyPackageName));
+
+        // Package ops with a non-default mode.
+        assertEquals(MODE_ERRORED,
+                getOp(readService, OP_CAMERA, mMyUid, mMyPackageName).getMode());
+
+        // A running op is persisted with the time it has been running so far.
+        final AppOpsManager.OpEntry readRunning = getOp(readService, OP_WAKE_LOCK, mMyUid,
+                mMyPackageName);
+        assertEquals(running.getTime(), readRunning.getTime());
+        assertTrue("duration " + readRunning.getDuration(),
+                readRunning.getDuration() >= RUNNING_OP_MILLIS);
+        assertEquals(AppOpsManager.opToDefaultMode(OP_WAKE_LOCK), readRunning.getMode());
+
+        // Proxy uid and package.
+        final AppOpsManager.OpEntry readProxied = getOp(readService, OP_READ_CONTACTS,
+                Process.SYSTEM_UID, "android");
+        assertEquals(proxied.getTime(), readProxied.getTime());
+        assertEquals(mMyUid, readProxied.getProxyUid());
+        assertEquals(mMyPackageName, readProxied.getProxyPackageName());
+
+        mAppOpsService.finishOperation(token, OP_WAKE_LOCK, mMyUid, mMyPackageName);
+    }
+
+    private AppOpsService createAppOpsService() {
+        final AppOpsService service = new AppOpsService(mAppOpsFile,
+                new Handler(mHandlerThread.getLooper()));
+        service.mContext = InstrumentationRegistry.getTargetContext();
+        return service;
+    }
+
+    private static AppOpsManager.OpEntry getOp(AppOpsService service, int code, int uid,
+            String packageName) {
+        final List<AppOpsManager.PackageOps> pkgOps = service.getOpsForPackage(uid,
+                packageName, new int[] { code });
+        assertNotNull(AppOpsManager.opToName(code) + " of " + packageName, pkgOps);
+        return pkgOps.get(0).getOps().get(0);
+    }
+
+    private void assertMode(int expected, int code, int uid, String packageName) {
+        assertEquals(AppOpsManager.opToName(code) + " of " + packageName, expected,
+                mAppOpsService.checkOperation(code, uid, packageName));
+        synchronized (mAppOpsService) {
+            assertEquals(AppOpsManager.opToName(code) + " of " + packageName + " (locked)",
+                    expected, mAppOpsService.checkOperationLocked(code, uid, packageName));
+        }
+    }
+}
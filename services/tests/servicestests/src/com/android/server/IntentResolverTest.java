@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Tests for the match cache of {@link IntentResolver}.
+ *
+ * Build/Install/Run:
+ *  bit FrameworksServicesTests:com.android.server.IntentResolverTest
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class IntentResolverTest {
+    private static final String ACTION_A = "com.android.server.action.A";
+    private static final String ACTION_B = "com.android.server.action.B";
+    private static final String CATEGORY_X = "com.android.server.category.X";
+    private static final String CATEGORY_Y = "com.android.server.category.Y";
+
+    private static final int USER_OWNER = 0;
+    private static final int USER_SECONDARY = 10;
+
+    private TestResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mResolver = new TestResolver();
+    }
+
+    @Test
+    public void testCachedQueryMatchesUncachedQuery() throws Exception {
+        final IntentFilter defaultFilter = newFilter(ACTION_A);
+        defaultFilter.addCategory(Intent.CATEGORY_DEFAULT);
+        final IntentFilter categoryFilter = newFilter(ACTION_A);
+        categoryFilter.addCategory(Intent.CATEGORY_DEFAULT);
+        categoryFilter.addCategory(CATEGORY_X);
+        final IntentFilter typedFilter = newFilter(ACTION_A);
+        typedFilter.addDataType("text/plain");
+        final IntentFilter otherFilter = newFilter(ACTION_B);
+        mResolver.addFilter(defaultFilter);
+        mResolver.addFilter(categoryFilter);
+        mResolver.addFilter(typedFilter);
+        mResolver.addFilter(otherFilter);
+
+        final Intent[] intents = {
+                new Intent(ACTION_A),
+                new Intent(ACTION_A).addCategory(CATEGORY_X),
+                new Intent(ACTION_B),
+        };
+        final String[] types = { null, "text/plain", "text/*", "image/png" };
+        for (Intent intent : intents) {
+            for (String type : types) {
+                for (boolean defaultOnly : new boolean[] { false, true }) {
+                    final List<Result> uncached = queryUncached(intent, type, defaultOnly,
+                            USER_OWNER);
+                    // The first query fills the cache, the second one is served from it.
+                    assertEquals(uncached, mResolver.queryIntent(intent, type, defaultOnly,
+                            USER_OWNER));
+                    assertEquals(uncached, mResolver.queryIntent(intent, type, defaultOnly,
+                            USER_OWNER));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testAddFilterEvictsCache() {
+        final IntentFilter first = newFilter(ACTION_A);
+        mResolver.addFilter(first);
+        final Intent intent = new Intent(ACTION_A);
+        assertEquals(results(USER_OWNER, first),
+                mResolver.queryIntent(intent, null, false, USER_OWNER));
+
+        final IntentFilter second = newFilter(ACTION_A);
+        mResolver.addFilter(second);
+        assertEquals(results(USER_OWNER, first, second),
+                mResolver.queryIntent(intent, null, false, USER_OWNER));
+    }
+
+    @Test
+    public void testRemoveFilterEvictsCache() {
+        final IntentFilter first = newFilter(ACTION_A);
+        final IntentFilter second = newFilter(ACTION_A);
+        mResolver.addFilter(first);
+        mResolver.addFilter(second);
+        final Intent intent = new Intent(ACTION_A);
+        assertEquals(results(USER_OWNER, first, second),
+                mResolver.queryIntent(intent, null, false, USER_OWNER));
+
+        mResolver.removeFilter(first);
+        assertEquals(results(USER_OWNER, second),
+                mResolver.queryIntent(intent, null, false, USER_OWNER));
+    }
+
+    @Test
+    public void testCategoryOrderDoesNotMatter() {
+        final IntentFilter filter = newFilter(ACTION_A);
+        filter.addCategory(CATEGORY_X);
+        filter.addCategory(CATEGORY_Y);
+        mResolver.addFilter(filter);
+
+        final Intent xy = new Intent(ACTION_A).addCategory(CATEGORY_X).addCategory(CATEGORY_Y);
+        final Intent yx = new Intent(ACTION_A).addCategory(CATEGORY_Y).addCategory(CATEGORY_X);
+        assertEquals(results(USER_OWNER, filter),
+                mResolver.queryIntent(xy, null, false, USER_OWNER));
+        assertEquals(results(USER_OWNER, filter),
+                mResolver.queryIntent(yx, null, false, USER_OWNER));
+    }
+
+    @Test
+    public void testCategoriesDoNotCollideWithSeparators() {
+        final IntentFilter filter = newFilter(ACTION_A);
+        filter.addCategory("x");
+        filter.addCategory("y");
+        mResolver.addFilter(filter);
+
+        assertEquals(results(USER_OWNER, filter), mResolver.queryIntent(
+                new Intent(ACTION_A).addCategory("x").addCategory("y"), null, false,
+                USER_OWNER));
+        assertTrue(mResolver.queryIntent(new Intent(ACTION_A).addCategory("x|y"), null, false,
+                USER_OWNER).isEmpty());
+    }
+
+    @Test
+    public void testResolvedTypeIsPartOfKey() throws Exception {
+        final IntentFilter textFilter = newFilter(ACTION_A);
+        textFilter.addDataType("text/plain");
+        final IntentFilter imageFilter = newFilter(ACTION_A);
+        imageFilter.addDataType("image/*");
+        mResolver.addFilter(textFilter);
+        mResolver.addFilter(imageFilter);
+
+        final Intent intent = new Intent(ACTION_A);
+        assertEquals(results(USER_OWNER, textFilter),
+                mResolver.queryIntent(intent, "text/plain", false, USER_OWNER));
+        assertEquals(results(USER_OWNER, imageFilter),
+                mResolver.queryIntent(intent, "image/png", false, USER_OWNER));
+        assertTrue(mResolver.queryIntent(intent, null, false, USER_OWNER).isEmpty());
+    }
+
+    @Test
+    public void testDefaultOnlyAppliedOnCacheHit() {
+        final IntentFilter defaultFilter = newFilter(ACTION_A);
+        defaultFilter.addCategory(Intent.CATEGORY_DEFAULT);
+        final IntentFilter plainFilter = newFilter(ACTION_A);
+        mResolver.addFilter(defaultFilter);
+        mResolver.addFilter(plainFilter);
+
+        final Intent intent = new Intent(ACTION_A);
+        assertEquals(results(USER_OWNER, defaultFilter, plainFilter),
+                mResolver.queryIntent(intent, null, false, USER_OWNER));
+        assertEquals(results(USER_OWNER, defaultFilter),
+                mResolver.queryIntent(intent, null, true, USER_OWNER));
+    }
+
+    @Test
+    public void testUserIdAppliedOnCacheHit() {
+        final IntentFilter filter = newFilter(ACTION_A);
+        mResolver.addFilter(filter);
+        mResolver.mStoppedUserId = USER_SECONDARY;
+
+        final Intent intent = new Intent(ACTION_A)
+                .addFlags(Intent.FLAG_EXCLUDE_STOPPED_PACKAGES);
+        assertEquals(results(USER_OWNER, filter),
+                mResolver.queryIntent(intent, null, false, USER_OWNER));
+        assertTrue(mResolver.queryIntent(intent, null, false, USER_SECONDARY).isEmpty());
+
+        mResolver.mStoppedUserId = USER_OWNER;
+        assertTrue(mResolver.queryIntent(intent, null, false, USER_OWNER).isEmpty());
+        assertEquals(results(USER_SECONDARY, filter),
+                mResolver.queryIntent(intent, null, false, USER_SECONDARY));
+    }
+
+    /** Resolves {@code intent} through the regular path, bypassing the match cache. */
+    private List<Result> queryUncached(Intent intent, String resolvedType, boolean defaultOnly,
+            int userId) {
+        final Intent debugIntent = new Intent(intent)
+                .addFlags(Intent.FLAG_DEBUG_LOG_RESOLUTION);
+        return mResolver.queryIntent(debugIntent, resolvedType, defaultOnly, userId);
+    }
+
+    private static IntentFilter newFilter(String action) {
+        return new IntentFilter(action);
+    }
+
+    private static List<Result> results(int userId, IntentFilter... filters) {
+        final Result[] results = new Result[filters.length];
+        for (int i = 0; i < filters.length; i++) {
+            results[i] = new Result(filters[i], userId);
+        }
+        return Arrays.asList(results);
+    }
+
+    private static class Result {
+        final IntentFilter filter;
+        final int userId;
+
+        Result(IntentFilter filter, int userId) {
+            this.filter = filter;
+            this.userId = userId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Result)) {
+                return false;
+            }
+            final Result other = (Result) o;
+            return filter == other.filter && userId == other.userId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(filter), userId);
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" + filter.getAction(0) + " u" + userId + "}";
+        }
+    }
+
+    private static class TestResolver extends IntentResolver<IntentFilter, Result> {
+        int mStoppedUserId = -1;
+
+        @Override
+        protected boolean isPackageForFilter(String packageName, IntentFilter filter) {
+            return false;
+        }
+
+        @Override
+        protected IntentFilter[] newArray(int size) {
+            return new IntentFilter[size];
+        }
+
+        @Override
+        protected boolean isFilterStopped(IntentFilter filter, int userId) {
+            return userId == mStoppedUserId;
+        }
+
+        @Override
+        protected Result newResult(IntentFilter filter, int match, int userId) {
+            return new Result(filter, userId);
+        }
+
+        @Override
+        protected void sortResults(List<Result> results) {
+            // Keep the order in which the filters were matched.
+        }
+    }
+}
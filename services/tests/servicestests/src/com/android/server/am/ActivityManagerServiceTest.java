@@ -20,6 +20,7 @@ import static android.app.ActivityManager.PROCESS_STATE_BOUND_FOREGROUND_SERVICE
 import static android.app.ActivityManager.PROCESS_STATE_CACHED_ACTIVITY;
 import static android.app.ActivityManager.PROCESS_STATE_CACHED_EMPTY;
 import static android.app.ActivityManager.PROCESS_STATE_FOREGROUND_SERVICE;
+import static android.app.ActivityManager.PROCESS_STATE_HOME;
 import static android.app.ActivityManager.PROCESS_STATE_IMPORTANT_BACKGROUND;
 import static android.app.ActivityManager.PROCESS_STATE_IMPORTANT_FOREGROUND;
 import static android.app.ActivityManager.PROCESS_STATE_LAST_ACTIVITY;
@@ -51,9 +52,14 @@ import android.app.ActivityManager;
 import android.app.AppOpsManager;
 import android.app.IApplicationThread;
 import android.app.IUidObserver;
+import android.content.ComponentName;
 import android.content.Context;
+import android.content.Intent;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
+import android.content.pm.ProviderInfo;
+import android.content.pm.ServiceInfo;
+import android.os.Binder;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.IBinder;
@@ -62,9 +68,13 @@ import android.os.Message;
 import android.os.Process;
 import android.os.RemoteException;
 import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
 import android.support.test.filters.MediumTest;
 import android.support.test.filters.SmallTest;
 import android.support.test.runner.AndroidJUnit4;
+import android.util.ArrayMap;
+import android.util.ArraySet;
 
 import com.android.internal.os.BatteryStatsImpl;
 import com.android.server.AppOpsService;
@@ -78,6 +88,7 @@ import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
 import java.io.File;
+import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -773,6 +784,257 @@ public class ActivityManagerServiceTest {
         mAms.mActiveUids.clear();
     }
 
+    @Test
+    public void testUpdateReachableOomAdj_diamond() {
+        final ReachableOomAdjAms ams = new ReachableOomAdjAms(mInjector);
+        final ProcessRecord app = addReachableProcess(ams, "app");
+        final ProcessRecord b = addReachableProcess(ams, "b");
+        final ProcessRecord c = addReachableProcess(ams, "c");
+        // app -> b, app -> c, b -> c
+        addProviderConnection(ams, app, b);
+        addProviderConnection(ams, app, c);
+        addProviderConnection(ams, b, c);
+
+        promote(ams, app);
+        assertTrue(ams.updateReachableOomAdjLocked(app, null, SystemClock.uptimeMillis()));
+
+        assertAppliedOnce(ams, b);
+        assertForeground(b);
+        assertAppliedOnce(ams, c);
+        assertForeground(c);
+        assertEquals(2, ams.mApplied.size());
+    }
+
+    @Test
+    public void testUpdateReachableOomAdj_cycle() {
+        final ReachableOomAdjAms ams = new ReachableOomAdjAms(mInjector);
+        final ProcessRecord app = addReachableProcess(ams, "app");
+        final ProcessRecord b = addReachableProcess(ams, "b");
+        final ProcessRecord c = addReachableProcess(ams, "c");
+        // app -> b, b -> c, c -> b
+        addProviderConnection(ams, app, b);
+        addProviderConnection(ams, b, c);
+        addProviderConnection(ams, c, b);
+
+        promote(ams, app);
+        assertTrue(ams.updateReachableOomAdjLocked(app, null, SystemClock.uptimeMillis()));
+
+        assertAppliedOnce(ams, b);
+        assertForeground(b);
+        // c is computed as a client of b while b is still being computed, so like in a full
+        // update it only sees b's baseline; it must still be applied exactly once.
+        assertAppliedOnce(ams, c);
+        assertEquals(c.curAdj, c.setAdj);
+        assertEquals(2, ams.mApplied.size());
+    }
+
+    @LargeTest
+    @Test
+    public void testUpdateOomAdj_onlyReachableProcessesRecomputed() throws Exception {
+        setUpOomAdj();
+        final ProcessRecord client = addOomAdjProcess("client", ProcessList.CACHED_APP_MIN_ADJ,
+                PROCESS_STATE_CACHED_EMPTY);
+        client.cached = true;
+        final ProcessRecord service = addOomAdjProcess("service", ProcessList.HOME_APP_ADJ,
+                PROCESS_STATE_HOME);
+        final ProcessRecord provider = addOomAdjProcess("provider", ProcessList.HOME_APP_ADJ,
+                PROCESS_STATE_HOME);
+        final ProcessRecord unrelated = addOomAdjProcess("unrelated", ProcessList.HOME_APP_ADJ,
+                PROCESS_STATE_HOME);
+        // Keeps the service host out of the cached state before the client raises it.
+        mAms.mHomeProcess = service;
+        // client -> service -> provider
+        addServiceConnection(client, service);
+        addProviderConnection(mAms, service, provider);
+
+        client.hasOverlayUi = true;
+        final int unrelatedAdjSeq = unrelated.adjSeq;
+        synchronized (mAms) {
+            assertTrue(mAms.updateOomAdjLocked(client, false));
+        }
+
+        assertApplied(client, ProcessList.PERCEPTIBLE_APP_ADJ,
+                PROCESS_STATE_IMPORTANT_FOREGROUND);
+        assertEquals(mAms.mAdjSeq, service.adjSeq);
+        assertApplied(service, ProcessList.PERCEPTIBLE_APP_ADJ,
+                PROCESS_STATE_IMPORTANT_FOREGROUND);
+        assertEquals(mAms.mAdjSeq, provider.adjSeq);
+        assertApplied(provider, ProcessList.PERCEPTIBLE_APP_ADJ,
+                PROCESS_STATE_IMPORTANT_FOREGROUND);
+        assertEquals(unrelatedAdjSeq, unrelated.adjSeq);
+        assertEquals(ProcessList.HOME_APP_ADJ, unrelated.setAdj);
+        assertEquals(PROCESS_STATE_HOME, unrelated.setProcState);
+    }
+
+    /**
+     * Provides the parts of the service that a real oom adj update needs, which the
+     * test constructor leaves unset.
+     */
+    private void setUpOomAdj() throws Exception {
+        setFieldValue(mAms, "mStackSupervisor", Mockito.mock(ActivityStackSupervisor.class));
+        setFieldValue(mAms, "mProcessStats", new ProcessStatsService(mAms, new File(
+                InstrumentationRegistry.getContext().getCacheDir(), "procstats")));
+        mAms.mFgBroadcastQueue = new BroadcastQueue(mAms, mHandler, "foreground", 0, false);
+        mAms.mBgBroadcastQueue = new BroadcastQueue(mAms, mHandler, "background", 0, true);
+        mAms.mBroadcastQueues[0] = mAms.mFgBroadcastQueue;
+        mAms.mBroadcastQueues[1] = mAms.mBgBroadcastQueue;
+    }
+
+    private ProcessRecord addOomAdjProcess(String processName, int adj, int procState) {
+        final ProcessRecord app = new ProcessRecord(mBatteryStatsImpl,
+                new ApplicationInfo(), processName, TEST_UID);
+        app.thread = Mockito.mock(IApplicationThread.class);
+        // No process has this pid, so changing its sched group does nothing.
+        app.setPid(Integer.MAX_VALUE - mAms.mLruProcesses.size());
+        app.curAdj = app.curRawAdj = app.setAdj = app.setRawAdj = adj;
+        app.curProcState = app.setProcState = app.repProcState = procState;
+        app.curSchedGroup = app.setSchedGroup = ProcessList.SCHED_GROUP_BACKGROUND;
+        mAms.mLruProcesses.add(app);
+        return app;
+    }
+
+    private void addServiceConnection(ProcessRecord client, ProcessRecord host) {
+        final ServiceInfo serviceInfo = new ServiceInfo();
+        serviceInfo.applicationInfo = host.info;
+        serviceInfo.processName = host.processName;
+        final ComponentName name = new ComponentName(host.processName, "Service");
+        final Intent.FilterComparison intent = new Intent.FilterComparison(
+                new Intent().setComponent(name));
+        final ServiceRecord s = new ServiceRecord(mAms, null, name, intent, serviceInfo,
+                false, null);
+        s.app = host;
+        host.services.add(s);
+        final IntentBindRecord intentBinding = new IntentBindRecord(s, intent);
+        final AppBindRecord binding = new AppBindRecord(s, intentBinding, client);
+        final ConnectionRecord cr = new ConnectionRecord(binding, null, null,
+                Context.BIND_AUTO_CREATE, 0, null);
+        binding.connections.add(cr);
+        final ArrayList<ConnectionRecord> clist = new ArrayList<>();
+        clist.add(cr);
+        s.connections.put(new Binder(), clist);
+        client.connections.add(cr);
+    }
+
+    private void assertApplied(ProcessRecord app, int adj, int procState) {
+        assertEquals("Adj of " + app.processName, adj, app.setAdj);
+        assertEquals("Proc state of " + app.processName, procState, app.setProcState);
+        assertEquals("Sched group of " + app.processName, ProcessList.SCHED_GROUP_DEFAULT,
+                app.setSchedGroup);
+    }
+
+    private static void setFieldValue(Object target, String fieldName, Object value)
+            throws Exception {
+        final Field field = ActivityManagerService.class.getDeclaredField(fieldName);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    private ProcessRecord addReachableProcess(ReachableOomAdjAms ams, String processName) {
+        final ProcessRecord app = new ProcessRecord(mBatteryStatsImpl,
+                new ApplicationInfo(), processName, TEST_UID);
+        app.thread = Mockito.mock(IApplicationThread.class);
+        app.curAdj = app.curRawAdj = app.setAdj = app.setRawAdj = ProcessList.SERVICE_ADJ;
+        app.curProcState = app.setProcState = PROCESS_STATE_SERVICE;
+        app.curSchedGroup = app.setSchedGroup = ProcessList.SCHED_GROUP_BACKGROUND;
+        ams.mOwnAdj.put(app, ProcessList.SERVICE_ADJ);
+        return app;
+    }
+
+    private void addProviderConnection(ActivityManagerService ams, ProcessRecord client,
+            ProcessRecord host) {
+        final ComponentName name = new ComponentName(host.processName,
+                "Provider" + host.pubProviders.size());
+        final ContentProviderRecord cpr = new ContentProviderRecord(ams, new ProviderInfo(),
+                host.info, name, false);
+        cpr.proc = host;
+        host.pubProviders.put(name.getClassName(), cpr);
+        final ContentProviderConnection conn = new ContentProviderConnection(cpr, client);
+        cpr.connections.add(conn);
+        client.conProviders.add(conn);
+    }
+
+    /** Moves {@code app} to the foreground as if it had just been computed and applied. */
+    private void promote(ReachableOomAdjAms ams, ProcessRecord app) {
+        ams.mOwnAdj.put(app, ProcessList.FOREGROUND_APP_ADJ);
+        ams.mComputed.clear();
+        ams.mComputed.add(app);
+        app.curAdj = app.curRawAdj = app.setAdj = app.setRawAdj = ProcessList.FOREGROUND_APP_ADJ;
+        app.curProcState = app.setProcState = PROCESS_STATE_TOP;
+        app.curSchedGroup = app.setSchedGroup = ProcessList.SCHED_GROUP_DEFAULT;
+    }
+
+    private void assertAppliedOnce(ReachableOomAdjAms ams, ProcessRecord app) {
+        int count = 0;
+        for (int i = ams.mApplied.size() - 1; i >= 0; --i) {
+            if (ams.mApplied.get(i) == app) {
+                count++;
+            }
+        }
+        assertEquals("Apply count of " + app.processName, 1, count);
+    }
+
+    private void assertForeground(ProcessRecord app) {
+        assertEquals(ProcessList.FOREGROUND_APP_ADJ, app.setAdj);
+        assertEquals(PROCESS_STATE_TOP, app.setProcState);
+        assertEquals(ProcessList.SCHED_GROUP_DEFAULT, app.setSchedGroup);
+    }
+
+    /**
+     * Replaces the oom adj computation with a minimal model of it: a process gets the most
+     * important of its own adj and the adj of its clients, and computing a process computes
+     * its clients first, once per walk.
+     */
+    private static class ReachableOomAdjAms extends ActivityManagerService {
+        final ArrayMap<ProcessRecord, Integer> mOwnAdj = new ArrayMap<>();
+        final ArraySet<ProcessRecord> mComputed = new ArraySet<>();
+        final ArrayList<ProcessRecord> mApplied = new ArrayList<>();
+
+        ReachableOomAdjAms(Injector injector) {
+            super(injector);
+        }
+
+        @Override
+        void computeReachableOomAdjLocked(ProcessRecord host, ProcessRecord TOP_APP, long now) {
+            compute(host);
+        }
+
+        private void compute(ProcessRecord app) {
+            if (!mComputed.add(app)) {
+                return;
+            }
+            int adj = mOwnAdj.get(app);
+            int procState = adj == ProcessList.FOREGROUND_APP_ADJ
+                    ? PROCESS_STATE_TOP : PROCESS_STATE_SERVICE;
+            // Baseline seen by clients computed while this process is being computed.
+            app.curAdj = app.curRawAdj = adj;
+            app.curProcState = procState;
+            for (int i = app.pubProviders.size() - 1; i >= 0; --i) {
+                final ContentProviderRecord cpr = app.pubProviders.valueAt(i);
+                for (int j = cpr.connections.size() - 1; j >= 0; --j) {
+                    final ProcessRecord client = cpr.connections.get(j).client;
+                    compute(client);
+                    if (client.curAdj < adj) {
+                        adj = client.curAdj;
+                        procState = client.curProcState;
+                    }
+                }
+            }
+            app.curAdj = app.curRawAdj = adj;
+            app.curProcState = procState;
+            app.curSchedGroup = adj == ProcessList.FOREGROUND_APP_ADJ
+                    ? ProcessList.SCHED_GROUP_DEFAULT : ProcessList.SCHED_GROUP_BACKGROUND;
+        }
+
+        @Override
+        void applyReachableOomAdjLocked(ProcessRecord host, long now) {
+            mApplied.add(host);
+            host.setAdj = host.curAdj;
+            host.setRawAdj = host.curRawAdj;
+            host.setProcState = host.curProcState;
+            host.setSchedGroup = host.curSchedGroup;
+        }
+    }
+
     private class TestHandler extends Handler {
         private static final long WAIT_FOR_MSG_TIMEOUT_MS = 4000; // 4 sec
         private static final long WAIT_FOR_MSG_INTERVAL_MS = 400; // 0.4 sec
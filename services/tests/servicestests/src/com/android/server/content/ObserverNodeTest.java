@@ -97,4 +97,34 @@ public class ObserverNodeTest extends AndroidTestCase {
             calls.clear();
         }
     }
+
+    public void testRemoveThenAdd() {
+        final int myUserHandle = UserHandle.myUserId();
+
+        ObserverNode root = new ObserverNode("");
+        Uri uri = Uri.parse("content://c/a/1/");
+        Uri sibling = Uri.parse("content://c/b/");
+
+        ContentObserver observer = new TestObserver();
+        root.addObserverLocked(uri, observer.getContentObserver(), false, root,
+                0, 0, myUserHandle);
+        root.addObserverLocked(sibling, new TestObserver().getContentObserver(), false, root,
+                0, 0, myUserHandle);
+
+        // Removing the only observer under c/a prunes that branch
+        root.removeObserverLocked(observer.getContentObserver());
+
+        ArrayList<ObserverCall> calls = new ArrayList<ObserverCall>();
+        root.collectObserversLocked(uri, 0, null, false, 0, myUserHandle, calls);
+        assertEquals(0, calls.size());
+        root.collectObserversLocked(sibling, 0, null, false, 0, myUserHandle, calls);
+        assertEquals(1, calls.size());
+        calls.clear();
+
+        // Registering again recreates the branch
+        root.addObserverLocked(uri, new TestObserver().getContentObserver(), false, root,
+                0, 0, myUserHandle);
+        root.collectObserversLocked(uri, 0, null, false, 0, myUserHandle, calls);
+        assertEquals(1, calls.size());
+    }
 }
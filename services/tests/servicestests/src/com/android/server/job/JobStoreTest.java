@@ -77,6 +77,29 @@ public class JobStoreTest extends AndroidTestCase {
 
     }
 
+    public void testBurstOfChangesWritesFinalState() throws Exception {
+        // Schedule and cancel in a tight loop, as a chatty app would.
+        JobStatus last = null;
+        for (int i = 0; i < 50; i++) {
+            final JobInfo task = new Builder(i, mComponent)
+                    .setRequiresCharging(true)
+                    .setPersisted(true)
+                    .build();
+            final JobStatus ts = JobStatus.createFromJobInfo(task, SOME_UID, null, -1, null);
+            mTaskStoreUnderTest.add(ts);
+            if (last != null) {
+                mTaskStoreUnderTest.remove(last, true);
+            }
+            last = ts;
+        }
+        Thread.sleep(IO_WAIT);
+
+        final JobSet jobStatusSet = new JobSet();
+        mTaskStoreUnderTest.readJobMapFromDisk(jobStatusSet);
+        assertEquals("Incorrect # of persisted tasks.", 1, jobStatusSet.size());
+        assertEquals(49, jobStatusSet.getAllJobs().get(0).getJobId());
+    }
+
     public void testWritingTwoFilesToDisk() throws Exception {
         final JobInfo task1 = new Builder(8, mComponent)
                 .setRequiresDeviceIdle(true)
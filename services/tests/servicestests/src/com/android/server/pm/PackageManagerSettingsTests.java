@@ -72,6 +72,8 @@ public class PackageManagerSettingsTests {
     private static final String PACKAGE_NAME_1 = "com.google.app1";
     public static final String TAG = "PackageManagerSettingsTests";
     protected final String PREFIX = "android.content.pm";
+    /** A modification time that no write during the test can produce */
+    private static final long OLD_MTIME = 1000000000000L;
 
     /** make sure our initialized KeySetManagerService metadata matches packages.xml */
     @Test
@@ -139,6 +141,79 @@ public class PackageManagerSettingsTests {
         assertThat(ps.getEnabled(1), is(COMPONENT_ENABLED_STATE_DEFAULT));
     }
 
+    /** make sure an unchanged write leaves packages.xml untouched */
+    @Test
+    public void testWriteUnchangedSettingsSkipped() {
+        writeOldFiles();
+        Settings settings =
+                new Settings(InstrumentationRegistry.getContext().getFilesDir(), new Object());
+        assertThat(settings.readLPw(createFakeUsers()), is(true));
+        settings.writeLPr();
+
+        final File settingsFile = getSettingsFile();
+        assertTrue(settingsFile.setLastModified(OLD_MTIME));
+        settings.writeLPr();
+        assertEquals(OLD_MTIME, settingsFile.lastModified());
+        assertThat(getBackupSettingsFile().exists(), is(false));
+    }
+
+    /** make sure a content change rewrites packages.xml */
+    @Test
+    public void testWriteChangedSettings() {
+        writeOldFiles();
+        Settings settings =
+                new Settings(InstrumentationRegistry.getContext().getFilesDir(), new Object());
+        assertThat(settings.readLPw(createFakeUsers()), is(true));
+        settings.writeLPr();
+
+        final File settingsFile = getSettingsFile();
+        assertTrue(settingsFile.setLastModified(OLD_MTIME));
+        settings.getPackageLPr(PACKAGE_NAME_1).setTimeStamp(0x1234567890L);
+        settings.writeLPr();
+        assertThat(settingsFile.lastModified(), is(not(OLD_MTIME)));
+
+        settings = new Settings(InstrumentationRegistry.getContext().getFilesDir(), new Object());
+        assertThat(settings.readLPw(createFakeUsers()), is(true));
+        assertEquals(0x1234567890L, settings.getPackageLPr(PACKAGE_NAME_1).timeStamp);
+    }
+
+    /** make sure a leftover backup file forces packages.xml to be rewritten */
+    @Test
+    public void testWriteSettingsWithBackup() throws IOException {
+        writeOldFiles();
+        Settings settings =
+                new Settings(InstrumentationRegistry.getContext().getFilesDir(), new Object());
+        assertThat(settings.readLPw(createFakeUsers()), is(true));
+        settings.writeLPr();
+
+        final File settingsFile = getSettingsFile();
+        final File backupFile = getBackupSettingsFile();
+        assertTrue(settingsFile.setLastModified(OLD_MTIME));
+        assertTrue(backupFile.createNewFile());
+        settings.writeLPr();
+        assertThat(settingsFile.lastModified(), is(not(OLD_MTIME)));
+        assertThat(backupFile.exists(), is(false));
+    }
+
+    /** make sure settings serialized earlier never overwrite newer ones */
+    @Test
+    public void testWriteStaleSettingsSkipped() {
+        writeOldFiles();
+        Settings settings =
+                new Settings(InstrumentationRegistry.getContext().getFilesDir(), new Object());
+        assertThat(settings.readLPw(createFakeUsers()), is(true));
+
+        final Settings.SerializedSettings stale = settings.serializeSettingsLPr();
+        settings.getPackageLPr(PACKAGE_NAME_1).setTimeStamp(0x1234567890L);
+        final Settings.SerializedSettings fresh = settings.serializeSettingsLPr();
+        assertTrue(settings.writeSettings(fresh));
+        assertTrue(settings.writeSettings(stale));
+
+        settings = new Settings(InstrumentationRegistry.getContext().getFilesDir(), new Object());
+        assertThat(settings.readLPw(createFakeUsers()), is(true));
+        assertEquals(0x1234567890L, settings.getPackageLPr(PACKAGE_NAME_1).timeStamp);
+    }
+
     @Test
     public void testEnableDisable() {
         // Write the package files and make sure they're parsed properly the first time
@@ -786,6 +861,15 @@ public class PackageManagerSettingsTests {
                 .getBytes());
     }
 
+    private static File getSettingsFile() {
+        return new File(InstrumentationRegistry.getContext().getFilesDir(), "system/packages.xml");
+    }
+
+    private static File getBackupSettingsFile() {
+        return new File(InstrumentationRegistry.getContext().getFilesDir(),
+                "system/packages-backup.xml");
+    }
+
     private void deleteSystemFolder() {
         File systemFolder = new File(InstrumentationRegistry.getContext().getFilesDir(), "system");
         deleteFolder(systemFolder);
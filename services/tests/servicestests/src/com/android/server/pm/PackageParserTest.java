@@ -26,11 +26,14 @@ import android.content.pm.ProviderInfo;
 import android.content.pm.ServiceInfo;
 import android.content.pm.Signature;
 import android.os.Bundle;
+import android.os.FileUtils;
 import android.os.Parcel;
+import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
 import android.test.suitebuilder.annotation.MediumTest;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.nio.charset.StandardCharsets;
@@ -55,12 +58,16 @@ import libcore.io.IoUtils;
 @MediumTest
 public class PackageParserTest {
     private File mTmpDir;
+    private File mPackageDir;
     private static final File FRAMEWORK = new File("/system/framework/framework-res.apk");
+    /** Whole seconds, as cache entries record the mtime in seconds */
+    private static final long PACKAGE_MTIME = 1000000000000L;
 
     @Before
     public void setUp() {
         // Create a new temporary directory for each of our tests.
         mTmpDir = IoUtils.createTemporaryDirectory("PackageParserTest");
+        mPackageDir = IoUtils.createTemporaryDirectory("PackageParserTestPackages");
     }
 
     @Test
@@ -109,6 +116,83 @@ public class PackageParserTest {
         assertEquals("android", pkg.packageName);
     }
 
+    @Test
+    public void testParse_invalidCacheHeader() throws Exception {
+        PackageParser pp = new CachePackageNameParser();
+        pp.setCacheDir(mTmpDir);
+        pp.parsePackage(FRAMEWORK, 0 /* parseFlags */, true /* useCaches */);
+        assertEquals(1, mTmpDir.list().length);
+
+        // Overwrite the header of the cache entry, the entry must not be used anymore.
+        File cacheFile = mTmpDir.listFiles()[0];
+        try (FileOutputStream fos = new FileOutputStream(cacheFile)) {
+            fos.write(new byte[] { 1, 2, 3, 4 });
+        }
+        PackageParser.Package pkg = pp.parsePackage(FRAMEWORK, 0 /* parseFlags */,
+                true /* useCaches */);
+        assertEquals("android", pkg.packageName);
+
+        // The entry is rewritten after the full parse.
+        pkg = pp.parsePackage(FRAMEWORK, 0 /* parseFlags */, true /* useCaches */);
+        assertEquals("cache_android", pkg.packageName);
+    }
+
+    @Test
+    public void testParse_packageSizeChanged() throws Exception {
+        final File apk = copyPackage(FRAMEWORK);
+        PackageParser pp = new CachePackageNameParser();
+        pp.setCacheDir(mTmpDir);
+        pp.parsePackage(apk, 0 /* parseFlags */, true /* useCaches */);
+        PackageParser.Package pkg = pp.parsePackage(apk, 0 /* parseFlags */,
+                true /* useCaches */);
+        assertEquals("cache_android", pkg.packageName);
+
+        // Replace the package by one of a different size, keeping the old mtime. The cache
+        // entry must be rejected and the package parsed again.
+        final File otherApk = new File(
+                InstrumentationRegistry.getContext().getPackageCodePath());
+        assertNotEquals(apk.length(), otherApk.length());
+        assertTrue(FileUtils.copyFile(otherApk, apk));
+        assertTrue(apk.setLastModified(PACKAGE_MTIME));
+        final String otherPackageName = InstrumentationRegistry.getContext().getPackageName();
+        pkg = pp.parsePackage(apk, 0 /* parseFlags */, true /* useCaches */);
+        assertEquals(otherPackageName, pkg.packageName);
+
+        pkg = pp.parsePackage(apk, 0 /* parseFlags */, true /* useCaches */);
+        assertEquals("cache_" + otherPackageName, pkg.packageName);
+    }
+
+    @Test
+    public void testParse_packageMtimeChanged() throws Exception {
+        final File apk = copyPackage(FRAMEWORK);
+        PackageParser pp = new CachePackageNameParser();
+        pp.setCacheDir(mTmpDir);
+        pp.parsePackage(apk, 0 /* parseFlags */, true /* useCaches */);
+        PackageParser.Package pkg = pp.parsePackage(apk, 0 /* parseFlags */,
+                true /* useCaches */);
+        assertEquals("cache_android", pkg.packageName);
+
+        // Move the mtime back, so that the package is still older than the cache entry but
+        // no longer matches the mtime the entry was written for.
+        assertTrue(apk.setLastModified(PACKAGE_MTIME - 60 * 1000));
+        pkg = pp.parsePackage(apk, 0 /* parseFlags */, true /* useCaches */);
+        assertEquals("android", pkg.packageName);
+
+        pkg = pp.parsePackage(apk, 0 /* parseFlags */, true /* useCaches */);
+        assertEquals("cache_android", pkg.packageName);
+    }
+
+    /**
+     * Copies {@code packageFile} out of the cache directory and dates it well before any
+     * cache entry written by the test.
+     */
+    private File copyPackage(File packageFile) {
+        final File apk = new File(mPackageDir, "base.apk");
+        assertTrue(FileUtils.copyFile(packageFile, apk));
+        assertTrue(apk.setLastModified(PACKAGE_MTIME));
+        return apk;
+    }
+
     @Test
     public void test_serializePackage() throws Exception {
         PackageParser pp = new PackageParser();
@@ -22,12 +22,19 @@ import android.util.Log;
 
 import junit.framework.Assert;
 
+import libcore.io.IoUtils;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -66,6 +73,69 @@ public class ParallelPackageParserTest {
         }
     }
 
+    @Test(timeout = 1000)
+    public void testSubmitAll() {
+        List<File> files = new ArrayList<>();
+        int fileCount = 15;
+        for (int i = 0; i < fileCount; i++) {
+            files.add(new File("f" + i));
+        }
+        Set<File> submittedFiles = new HashSet<>(files);
+        Assert.assertEquals(fileCount, mParser.submitAll(files, 0));
+        for (int i = 0; i < fileCount; i++) {
+            ParallelPackageParser.ParseResult result = mParser.take();
+            Assert.assertNotNull(result);
+            Assert.assertTrue(result.parseTimeMillis >= 0);
+            Assert.assertTrue("Unexpected file " + result.scanFile,
+                    submittedFiles.remove(result.scanFile));
+        }
+    }
+
+    @Test(timeout = 1000)
+    public void testSubmitAllLargestFirst() throws Exception {
+        final File dir = IoUtils.createTemporaryDirectory("ParallelPackageParserTest");
+        final File small = createFile(dir, "small.apk", 100);
+        final File large = createFile(dir, "large.apk", 3000);
+        final File smallest = createFile(dir, "smallest.apk", 50);
+        // A cluster package is as large as all of its APKs together, other files don't count.
+        final File cluster = new File(dir, "cluster");
+        Assert.assertTrue(cluster.mkdir());
+        createFile(cluster, "base.apk", 1000);
+        createFile(cluster, "split.apk", 1500);
+        createFile(cluster, "notes.txt", 10000);
+        Assert.assertEquals(2500, ParallelPackageParser.getPackageSize(cluster));
+
+        final List<File> submitted = new ArrayList<>();
+        mParser = new TestParallelPackageParser() {
+            @Override
+            public void submit(File scanFile, int parseFlags) {
+                submitted.add(scanFile);
+                super.submit(scanFile, parseFlags);
+            }
+        };
+        final List<File> files = Arrays.asList(small, large, smallest, cluster);
+        Assert.assertEquals(files.size(), mParser.submitAll(files, 0));
+        Assert.assertEquals(Arrays.asList(large, cluster, small, smallest), submitted);
+        for (int i = 0; i < files.size(); i++) {
+            Assert.assertNotNull(mParser.take());
+        }
+    }
+
+    private static File createFile(File dir, String name, int size) throws IOException {
+        final File file = new File(dir, name);
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            fos.write(new byte[size]);
+        }
+        return file;
+    }
+
+    @Test
+    public void testThreadCount() {
+        int threadCount = ParallelPackageParser.getThreadCount();
+        Assert.assertTrue(threadCount >= 1);
+        Assert.assertTrue(threadCount <= Runtime.getRuntime().availableProcessors());
+    }
+
     class TestParallelPackageParser extends ParallelPackageParser {
 
         TestParallelPackageParser() {
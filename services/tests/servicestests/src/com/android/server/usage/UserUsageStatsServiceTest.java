@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.usage;
+
+import android.app.usage.UsageEvents;
+import android.app.usage.UsageStatsManager;
+import android.os.FileUtils;
+import android.os.Parcel;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+
+import com.android.server.usage.UsageStatsDatabase.StatCombiner;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for the paged, filtered events query of {@link UserUsageStatsService}.
+ */
+public class UserUsageStatsServiceTest extends AndroidTestCase {
+    private static final long BEGIN_TIME = 1000000000000L;
+    private static final int DAYS = 3;
+    private static final long END_TIME = BEGIN_TIME + DAYS * DateUtils.DAY_IN_MILLIS;
+
+    private static final String PACKAGE_1 = "com.android.testpackage1";
+    private static final String PACKAGE_2 = "com.android.testpackage2";
+
+    private File mStatsDir;
+    private UserUsageStatsService mService;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mStatsDir = new File(getContext().getFilesDir(), "usagestats");
+        FileUtils.deleteContents(mStatsDir);
+        mStatsDir.mkdirs();
+        mService = new UserUsageStatsService(getContext(), 0, mStatsDir,
+                new UserUsageStatsService.StatsUpdatedListener() {
+                    @Override
+                    public void onStatsUpdated() {
+                    }
+
+                    @Override
+                    public void onStatsReloaded() {
+                    }
+
+                    @Override
+                    public void onNewUpdate(int userId) {
+                    }
+                });
+        mService.init(BEGIN_TIME);
+
+        // Each day is its own daily file; the last one is still in memory.
+        for (int day = 0; day < DAYS; day++) {
+            final long dayTime = BEGIN_TIME + day * DateUtils.DAY_IN_MILLIS;
+            reportEvent(PACKAGE_1, dayTime + 1 * DateUtils.HOUR_IN_MILLIS,
+                    UsageEvents.Event.MOVE_TO_FOREGROUND);
+            reportEvent(PACKAGE_1, dayTime + 2 * DateUtils.HOUR_IN_MILLIS,
+                    UsageEvents.Event.MOVE_TO_BACKGROUND);
+            reportEvent(PACKAGE_2, dayTime + 3 * DateUtils.HOUR_IN_MILLIS,
+                    UsageEvents.Event.MOVE_TO_FOREGROUND);
+            reportEvent(PACKAGE_2, dayTime + 4 * DateUtils.HOUR_IN_MILLIS,
+                    UsageEvents.Event.MOVE_TO_BACKGROUND);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteContents(mStatsDir);
+        super.tearDown();
+    }
+
+    public void testPagesNeitherSkipNorRepeatEvents() {
+        final List<UsageEvents.Event> all = readEvents(
+                mService.queryEvents(BEGIN_TIME, END_TIME, false));
+        assertEquals(DAYS * 4, all.size());
+
+        // Pages of 5 end both inside a daily file and on the in-memory stats.
+        final List<UsageEvents.Event> paged = new ArrayList<>();
+        long beginTime = BEGIN_TIME;
+        int pageCount = 0;
+        while (true) {
+            final UsageEvents page = mService.queryEvents(beginTime, END_TIME, false, 5, null,
+                    null);
+            if (page == null) {
+                break;
+            }
+            final List<UsageEvents.Event> events = readEvents(page);
+            assertTrue(events.size() <= 5);
+            paged.addAll(events);
+            beginTime = events.get(events.size() - 1).getTimeStamp() + 1;
+            pageCount++;
+        }
+
+        assertEquals(3, pageCount);
+        assertEquals(all.size(), paged.size());
+        for (int i = 0; i < all.size(); i++) {
+            assertEquals(all.get(i).getTimeStamp(), paged.get(i).getTimeStamp());
+            assertEquals(all.get(i).getPackageName(), paged.get(i).getPackageName());
+            assertEquals(all.get(i).getEventType(), paged.get(i).getEventType());
+        }
+    }
+
+    public void testPackageFilter() {
+        final List<UsageEvents.Event> events = readEvents(mService.queryEvents(BEGIN_TIME,
+                END_TIME, false, Integer.MAX_VALUE, PACKAGE_2, null));
+        assertEquals(DAYS * 2, events.size());
+        for (UsageEvents.Event event : events) {
+            assertEquals(PACKAGE_2, event.getPackageName());
+        }
+    }
+
+    public void testEventTypeFilter() {
+        final List<UsageEvents.Event> events = readEvents(mService.queryEvents(BEGIN_TIME,
+                END_TIME, false, Integer.MAX_VALUE, null,
+                new int[] { UsageEvents.Event.MOVE_TO_BACKGROUND }));
+        assertEquals(DAYS * 2, events.size());
+        for (UsageEvents.Event event : events) {
+            assertEquals(UsageEvents.Event.MOVE_TO_BACKGROUND, event.getEventType());
+        }
+    }
+
+    public void testPackageAndEventTypeFilters() {
+        final List<UsageEvents.Event> events = readEvents(mService.queryEvents(BEGIN_TIME,
+                END_TIME, false, Integer.MAX_VALUE, PACKAGE_1,
+                new int[] { UsageEvents.Event.MOVE_TO_FOREGROUND }));
+        assertEquals(DAYS, events.size());
+        for (UsageEvents.Event event : events) {
+            assertEquals(PACKAGE_1, event.getPackageName());
+            assertEquals(UsageEvents.Event.MOVE_TO_FOREGROUND, event.getEventType());
+        }
+    }
+
+    public void testPageStopsAtLimit() {
+        final List<UsageEvents.Event> events = readEvents(mService.queryEvents(BEGIN_TIME,
+                END_TIME, false, 3, null, null));
+        assertEquals(3, events.size());
+        assertEquals(BEGIN_TIME + 1 * DateUtils.HOUR_IN_MILLIS, events.get(0).getTimeStamp());
+        assertEquals(BEGIN_TIME + 3 * DateUtils.HOUR_IN_MILLIS, events.get(2).getTimeStamp());
+    }
+
+    public void testCombinerStopsReadingFiles() {
+        final UsageStatsDatabase database = new UsageStatsDatabase(mStatsDir);
+        database.init(END_TIME);
+
+        final int[] calls = new int[1];
+        database.queryUsageStats(UsageStatsManager.INTERVAL_DAILY, BEGIN_TIME, END_TIME,
+                new StatCombiner<Object>() {
+                    @Override
+                    public boolean combine(IntervalStats stats, boolean mutable,
+                            List<Object> accumulatedResult) {
+                        calls[0]++;
+                        return true;
+                    }
+                });
+        // All but the last day were rolled over to disk.
+        assertEquals(DAYS - 1, calls[0]);
+
+        calls[0] = 0;
+        database.queryUsageStats(UsageStatsManager.INTERVAL_DAILY, BEGIN_TIME, END_TIME,
+                new StatCombiner<Object>() {
+                    @Override
+                    public boolean combine(IntervalStats stats, boolean mutable,
+                            List<Object> accumulatedResult) {
+                        calls[0]++;
+                        return false;
+                    }
+                });
+        assertEquals(1, calls[0]);
+    }
+
+    private void reportEvent(String packageName, long timeStamp, int eventType) {
+        final UsageEvents.Event event = new UsageEvents.Event();
+        event.mPackage = packageName;
+        event.mClass = packageName + ".Activity";
+        event.mTimeStamp = timeStamp;
+        event.mEventType = eventType;
+        mService.reportEvent(event);
+    }
+
+    private static List<UsageEvents.Event> readEvents(UsageEvents events) {
+        final List<UsageEvents.Event> result = new ArrayList<>();
+        if (events == null) {
+            return result;
+        }
+        // The events can only be read back once they have gone through a parcel, as they
+        // do when they are returned over binder.
+        final Parcel parcel = Parcel.obtain();
+        try {
+            events.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            final UsageEvents readEvents = UsageEvents.CREATOR.createFromParcel(parcel);
+            while (readEvents.hasNextEvent()) {
+                final UsageEvents.Event event = new UsageEvents.Event();
+                readEvents.getNextEvent(event);
+                result.add(event);
+            }
+        } finally {
+            parcel.recycle();
+        }
+        return result;
+    }
+}
@@ -382,8 +382,9 @@ class UsageStatsDatabase {
          * @param stats The {@link IntervalStats} object selected.
          * @param mutable Whether or not the data inside the stats object is mutable.
          * @param accumulatedResult The list to which to add extracted data.
+         * @return Whether to keep going with the next {@link IntervalStats} in the range.
          */
-        void combine(IntervalStats stats, boolean mutable, List<T> accumulatedResult);
+        boolean combine(IntervalStats stats, boolean mutable, List<T> accumulatedResult);
     }
 
     /**
@@ -391,6 +392,16 @@ class UsageStatsDatabase {
      */
     public <T> List<T> queryUsageStats(int intervalType, long beginTime, long endTime,
             StatCombiner<T> combiner) {
+        return queryUsageStats(intervalType, beginTime, endTime, combiner, true);
+    }
+
+    /**
+     * Find all {@link IntervalStats} for the given range and interval type. When
+     * <code>readEvents</code> is false, the {@link IntervalStats} passed to the combiner
+     * have no events, and the event log of each file is skipped while parsing.
+     */
+    public <T> List<T> queryUsageStats(int intervalType, long beginTime, long endTime,
+            StatCombiner<T> combiner, boolean readEvents) {
         synchronized (mLock) {
             if (intervalType < 0 || intervalType >= mIntervalDirs.length) {
                 throw new IllegalArgumentException("Bad interval type " + intervalType);
@@ -443,9 +454,11 @@ class UsageStatsDatabase {
                 }
 
                 try {
-                    UsageStatsXml.read(f, stats);
+                    UsageStatsXml.read(f, stats, readEvents);
                     if (beginTime < stats.endTime) {
-                        combiner.combine(stats, false, results);
+                        if (!combiner.combine(stats, false, results)) {
+                            break;
+                        }
                     }
                 } catch (IOException e) {
                     Slog.e(TAG, "Failed to read usage stats file", e);
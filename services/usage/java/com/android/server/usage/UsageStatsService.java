@@ -884,6 +884,24 @@ public class UsageStatsService extends SystemService implements
         }
     }
 
+    /**
+     * Called by the Binder stub.
+     */
+    UsageEvents queryEventsPage(int userId, long beginTime, long endTime, int maxEvents,
+            String packageName, int[] eventTypes, boolean shouldObfuscateInstantApps) {
+        synchronized (mLock) {
+            final long timeNow = checkAndGetTimeLocked();
+            if (!validRange(timeNow, beginTime, endTime) || maxEvents <= 0) {
+                return null;
+            }
+
+            final UserUsageStatsService service =
+                    getUserDataAndInitializeIfNeededLocked(userId, timeNow);
+            return service.queryEvents(beginTime, endTime, shouldObfuscateInstantApps,
+                    maxEvents, packageName, eventTypes);
+        }
+    }
+
     private boolean isAppIdleUnfiltered(String packageName, int userId, long elapsedRealtime) {
         synchronized (mAppIdleLock) {
             return mAppIdleHistory.isIdle(packageName, userId, elapsedRealtime);
@@ -1447,6 +1465,26 @@ public class UsageStatsService extends SystemService implements
             }
         }
 
+        @Override
+        public UsageEvents queryEventsPage(long beginTime, long endTime, int maxEvents,
+                String packageName, int[] eventTypes, String callingPackage) {
+            if (!hasPermission(callingPackage)) {
+                return null;
+            }
+
+            final boolean obfuscateInstantApps = shouldObfuscateInstantAppsForCaller(
+                    Binder.getCallingUid(), UserHandle.getCallingUserId());
+
+            final int userId = UserHandle.getCallingUserId();
+            final long token = Binder.clearCallingIdentity();
+            try {
+                return UsageStatsService.this.queryEventsPage(userId, beginTime, endTime,
+                        maxEvents, packageName, eventTypes, obfuscateInstantApps);
+            } finally {
+                Binder.restoreCallingIdentity(token);
+            }
+        }
+
         @Override
         public boolean isAppInactive(String packageName, int userId) {
             try {
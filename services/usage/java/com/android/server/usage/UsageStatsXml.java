@@ -56,11 +56,21 @@ public class UsageStatsXml {
     }
 
     public static void read(AtomicFile file, IntervalStats statsOut) throws IOException {
+        read(file, statsOut, true);
+    }
+
+    /**
+     * Reads the stats in the given file. When <code>readEvents</code> is false, the event log
+     * is skipped and <code>statsOut.events</code> is left empty, which saves creating an object
+     * per event for callers that only need package or configuration stats.
+     */
+    public static void read(AtomicFile file, IntervalStats statsOut, boolean readEvents)
+            throws IOException {
         try {
             FileInputStream in = file.openRead();
             try {
                 statsOut.beginTime = parseBeginTime(file);
-                read(in, statsOut);
+                read(in, statsOut, readEvents);
                 statsOut.lastTimeSaved = file.getLastModifiedTime();
             } finally {
                 try {
@@ -88,6 +98,11 @@ public class UsageStatsXml {
     }
 
     static void read(InputStream in, IntervalStats statsOut) throws IOException {
+        read(in, statsOut, true);
+    }
+
+    static void read(InputStream in, IntervalStats statsOut, boolean readEvents)
+            throws IOException {
         XmlPullParser parser = Xml.newPullParser();
         try {
             parser.setInput(in, "utf-8");
@@ -96,7 +111,7 @@ public class UsageStatsXml {
             try {
                 switch (Integer.parseInt(versionStr)) {
                     case 1:
-                        UsageStatsXmlV1.read(parser, statsOut);
+                        UsageStatsXmlV1.read(parser, statsOut, readEvents);
                         break;
 
                     default:
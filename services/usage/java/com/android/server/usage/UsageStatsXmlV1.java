@@ -290,6 +290,20 @@ final class UsageStatsXmlV1 {
      */
     public static void read(XmlPullParser parser, IntervalStats statsOut)
             throws XmlPullParserException, IOException {
+        read(parser, statsOut, true);
+    }
+
+    /**
+     * Reads from the {@link XmlPullParser}, assuming that it is already on the
+     * <code><usagestats></code> tag.
+     *
+     * @param parser The parser from which to read events.
+     * @param statsOut The stats object to populate with the data from the XML file.
+     * @param readEvents Whether to load the event log. When false, event tags are skipped
+     *                   and <code>statsOut.events</code> is left empty.
+     */
+    public static void read(XmlPullParser parser, IntervalStats statsOut, boolean readEvents)
+            throws XmlPullParserException, IOException {
         statsOut.packageStats.clear();
         statsOut.configurations.clear();
         statsOut.activeConfiguration = null;
@@ -319,7 +333,9 @@ final class UsageStatsXmlV1 {
                     break;
 
                 case EVENT_TAG:
-                    loadEvent(parser, statsOut);
+                    if (readEvents) {
+                        loadEvent(parser, statsOut);
+                    }
                     break;
             }
         }
@@ -29,6 +29,7 @@ import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.Slog;
 
+import com.android.internal.util.ArrayUtils;
 import com.android.internal.util.IndentingPrintWriter;
 import com.android.server.usage.UsageStatsDatabase.StatCombiner;
 
@@ -199,44 +200,47 @@ class UserUsageStatsService {
     private static final StatCombiner<UsageStats> sUsageStatsCombiner =
             new StatCombiner<UsageStats>() {
                 @Override
-                public void combine(IntervalStats stats, boolean mutable,
+                public boolean combine(IntervalStats stats, boolean mutable,
                                     List<UsageStats> accResult) {
                     if (!mutable) {
                         accResult.addAll(stats.packageStats.values());
-                        return;
+                        return true;
                     }
 
                     final int statCount = stats.packageStats.size();
                     for (int i = 0; i < statCount; i++) {
                         accResult.add(new UsageStats(stats.packageStats.valueAt(i)));
                     }
+                    return true;
                 }
             };
 
     private static final StatCombiner<ConfigurationStats> sConfigStatsCombiner =
             new StatCombiner<ConfigurationStats>() {
                 @Override
-                public void combine(IntervalStats stats, boolean mutable,
+                public boolean combine(IntervalStats stats, boolean mutable,
                                     List<ConfigurationStats> accResult) {
                     if (!mutable) {
                         accResult.addAll(stats.configurations.values());
-                        return;
+                        return true;
                     }
 
                     final int configCount = stats.configurations.size();
                     for (int i = 0; i < configCount; i++) {
                         accResult.add(new ConfigurationStats(stats.configurations.valueAt(i)));
                     }
+                    return true;
                 }
             };
 
     /**
      * Generic query method that selects the appropriate IntervalStats for the specified time range
      * and bucket, then calls the {@link com.android.server.usage.UsageStatsDatabase.StatCombiner}
-     * provided to select the stats to use from the IntervalStats object.
+     * provided to select the stats to use from the IntervalStats object. Events are only
+     * parsed from disk when <code>readEvents</code> is set.
      */
     private <T> List<T> queryStats(int intervalType, final long beginTime, final long endTime,
-            StatCombiner<T> combiner) {
+            StatCombiner<T> combiner, boolean readEvents) {
         if (intervalType == UsageStatsManager.INTERVAL_BEST) {
             intervalType = mDatabase.findBestFitBucket(beginTime, endTime);
             if (intervalType < 0) {
@@ -276,7 +280,7 @@ class UserUsageStatsService {
 
         // Get the stats from disk.
         List<T> results = mDatabase.queryUsageStats(intervalType, beginTime,
-                truncatedEndTime, combiner);
+                truncatedEndTime, combiner, readEvents);
         if (DEBUG) {
             Slog.d(TAG, "Got " + (results != null ? results.size() : 0) + " results from disk");
             Slog.d(TAG, "Current stats beginTime=" + currentStats.beginTime +
@@ -302,48 +306,74 @@ class UserUsageStatsService {
     }
 
     List<UsageStats> queryUsageStats(int bucketType, long beginTime, long endTime) {
-        return queryStats(bucketType, beginTime, endTime, sUsageStatsCombiner);
+        return queryStats(bucketType, beginTime, endTime, sUsageStatsCombiner, false);
     }
 
     List<ConfigurationStats> queryConfigurationStats(int bucketType, long beginTime, long endTime) {
-        return queryStats(bucketType, beginTime, endTime, sConfigStatsCombiner);
+        return queryStats(bucketType, beginTime, endTime, sConfigStatsCombiner, false);
     }
 
     UsageEvents queryEvents(final long beginTime, final long endTime,
             boolean obfuscateInstantApps) {
+        return queryEvents(beginTime, endTime, obfuscateInstantApps, Integer.MAX_VALUE, null,
+                null);
+    }
+
+    /**
+     * Returns at most <code>maxEvents</code> events in the range, oldest first, optionally
+     * restricted to one package and a set of event types. Stops reading daily files once
+     * enough events have been collected.
+     */
+    UsageEvents queryEvents(final long beginTime, final long endTime,
+            final boolean obfuscateInstantApps, final int maxEvents,
+            final String packageName, final int[] eventTypes) {
         final ArraySet<String> names = new ArraySet<>();
         List<UsageEvents.Event> results = queryStats(UsageStatsManager.INTERVAL_DAILY,
                 beginTime, endTime, new StatCombiner<UsageEvents.Event>() {
                     @Override
-                    public void combine(IntervalStats stats, boolean mutable,
+                    public boolean combine(IntervalStats stats, boolean mutable,
                             List<UsageEvents.Event> accumulatedResult) {
+                        if (accumulatedResult.size() >= maxEvents) {
+                            return false;
+                        }
                         if (stats.events == null) {
-                            return;
+                            return true;
                         }
 
                         final int startIndex = stats.events.closestIndexOnOrAfter(beginTime);
                         if (startIndex < 0) {
-                            return;
+                            return true;
                         }
 
                         final int size = stats.events.size();
                         for (int i = startIndex; i < size; i++) {
                             if (stats.events.keyAt(i) >= endTime) {
-                                return;
+                                return true;
                             }
 
                             UsageEvents.Event event = stats.events.valueAt(i);
+                            if (eventTypes != null
+                                    && !ArrayUtils.contains(eventTypes, event.mEventType)) {
+                                continue;
+                            }
                             if (obfuscateInstantApps) {
                                 event = event.getObfuscatedIfInstantApp();
                             }
+                            if (packageName != null && !packageName.equals(event.mPackage)) {
+                                continue;
+                            }
                             names.add(event.mPackage);
                             if (event.mClass != null) {
                                 names.add(event.mClass);
                             }
                             accumulatedResult.add(event);
+                            if (accumulatedResult.size() >= maxEvents) {
+                                return false;
+                            }
                         }
+                        return true;
                     }
-                });
+                }, true);
 
         if (results == null || results.isEmpty()) {
             return null;
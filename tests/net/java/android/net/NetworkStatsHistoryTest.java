@@ -206,6 +206,36 @@ public class NetworkStatsHistoryTest extends AndroidTestCase {
         assertValues(stats, 3, 500L, 250L);
     }
 
+    public void testRecordHistoryRangeIdentical() throws Exception {
+        // create history with four hour buckets
+        final NetworkStatsHistory input = new NetworkStatsHistory(HOUR_IN_MILLIS);
+        input.recordData(TEST_START, TEST_START + 4 * HOUR_IN_MILLIS, 4000L, 400L);
+
+        // existing history already has data in the first and last buckets
+        stats = new NetworkStatsHistory(HOUR_IN_MILLIS);
+        stats.recordData(TEST_START, TEST_START + HOUR_IN_MILLIS, 10L, 1L);
+        stats.recordData(TEST_START + 3 * HOUR_IN_MILLIS, TEST_START + 4 * HOUR_IN_MILLIS,
+                20L, 2L);
+
+        // only copy the middle two buckets
+        stats.recordHistory(input, TEST_START + HOUR_IN_MILLIS,
+                TEST_START + 3 * HOUR_IN_MILLIS + MINUTE_IN_MILLIS);
+
+        assertEquals(4, stats.size());
+        assertValues(stats, 0, HOUR_IN_MILLIS, 10L, 0L, 1L, 0L, 0L);
+        assertValues(stats, 1, HOUR_IN_MILLIS, 1000L, 0L, 100L, 0L, 0L);
+        assertValues(stats, 2, HOUR_IN_MILLIS, 1000L, 0L, 100L, 0L, 0L);
+        assertValues(stats, 3, HOUR_IN_MILLIS, 20L, 0L, 2L, 0L, 0L);
+        assertEquals(2030L + 203L, stats.getTotalBytes());
+
+        // copying everything adds into existing buckets
+        stats.recordEntireHistory(input);
+        assertEquals(4, stats.size());
+        assertValues(stats, 0, HOUR_IN_MILLIS * 2, 1010L, 0L, 101L, 0L, 0L);
+        assertValues(stats, 1, HOUR_IN_MILLIS * 2, 2000L, 0L, 200L, 0L, 0L);
+        assertValues(stats, 3, HOUR_IN_MILLIS * 2, 1020L, 0L, 102L, 0L, 0L);
+    }
+
     public void testRecordEntireOverlapVaryingBuckets() throws Exception {
         // create history just over hour bucket boundary
         final NetworkStatsHistory stats1 = new NetworkStatsHistory(HOUR_IN_MILLIS);
@@ -116,6 +116,26 @@ public class NetworkStatsTest extends TestCase {
         }
     }
 
+    public void testFindIndexAfterAdd() {
+        final NetworkStats stats = new NetworkStats(TEST_START, 0);
+        for (int uid = 0; uid < 100; uid++) {
+            stats.addValues(TEST_IFACE, uid, SET_DEFAULT, TAG_NONE, METERED_NO, ROAMING_NO, uid,
+                    0L, 0L, 0L, 0);
+
+            // lookups between adds must see every row added so far
+            assertEquals(uid, stats.findIndex(TEST_IFACE, uid, SET_DEFAULT, TAG_NONE, METERED_NO,
+                    ROAMING_NO));
+            assertEquals(-1, stats.findIndex(TEST_IFACE2, uid, SET_DEFAULT, TAG_NONE,
+                    METERED_NO, ROAMING_NO));
+        }
+
+        // duplicate rows resolve to the first match
+        stats.addValues(TEST_IFACE, 42, SET_DEFAULT, TAG_NONE, METERED_NO, ROAMING_NO, 0L, 0L,
+                0L, 0L, 0);
+        assertEquals(42, stats.findIndex(TEST_IFACE, 42, SET_DEFAULT, TAG_NONE, METERED_NO,
+                ROAMING_NO));
+    }
+
     public void testAddEntryGrow() throws Exception {
         final NetworkStats stats = new NetworkStats(TEST_START, 4);
 
@@ -247,6 +267,37 @@ public class NetworkStatsTest extends TestCase {
                 1024L, 8L, 1024L, 8L, 20);
     }
 
+    public void testSubtractReorderedRows() throws Exception {
+        final NetworkStats before = new NetworkStats(TEST_START, 3)
+                .addValues(TEST_IFACE, 100, SET_DEFAULT, TAG_NONE, 1024L, 8L, 0L, 0L, 11)
+                .addValues(TEST_IFACE, 101, SET_DEFAULT, TAG_NONE, 0L, 0L, 1024L, 8L, 12)
+                .addValues(TEST_IFACE2, 100, SET_DEFAULT, TAG_NONE, 512L, 4L, 512L, 4L, 0);
+
+        final NetworkStats after = new NetworkStats(TEST_START, 3)
+                .addValues(TEST_IFACE2, 100, SET_DEFAULT, TAG_NONE, 513L, 5L, 514L, 6L, 0)
+                .addValues(TEST_IFACE, 101, SET_DEFAULT, TAG_NONE, 3L, 1L, 1028L, 9L, 20)
+                .addValues(TEST_IFACE, 100, SET_DEFAULT, TAG_NONE, 1025L, 9L, 2L, 1L, 15);
+
+        // recycled result is reused when large enough
+        final NetworkStats recycle = new NetworkStats(TEST_START, 3)
+                .addValues(TEST_IFACE, 999, SET_DEFAULT, TAG_NONE, 1L, 1L, 1L, 1L, 1);
+        assertEquals(0, recycle.findIndex(TEST_IFACE, 999, SET_DEFAULT, TAG_NONE, METERED_NO,
+                ROAMING_NO));
+        final NetworkStats result = NetworkStats.subtract(after, before, null, null, recycle);
+        assertSame(recycle, result);
+
+        // rows are matched by key rather than position
+        assertEquals(3, result.size());
+        assertValues(result, 0, TEST_IFACE2, 100, SET_DEFAULT, TAG_NONE, METERED_NO, ROAMING_NO,
+                1L, 1L, 2L, 2L, 0);
+        assertValues(result, 1, TEST_IFACE, 101, SET_DEFAULT, TAG_NONE, METERED_NO, ROAMING_NO,
+                3L, 1L, 4L, 1L, 8);
+        assertValues(result, 2, TEST_IFACE, 100, SET_DEFAULT, TAG_NONE, METERED_NO, ROAMING_NO,
+                1L, 1L, 2L, 1L, 4);
+        assertEquals(-1, result.findIndex(TEST_IFACE, 999, SET_DEFAULT, TAG_NONE, METERED_NO,
+                ROAMING_NO));
+    }
+
     public void testSubtractMissingRows() throws Exception {
         final NetworkStats before = new NetworkStats(TEST_START, 2)
                 .addValues(TEST_IFACE, UID_ALL, SET_DEFAULT, TAG_NONE, 1024L, 0L, 0L, 0L, 0)